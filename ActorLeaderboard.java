@@ -0,0 +1,247 @@
+package ca.yorku.eecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Actors ranked by their number of ACTED_IN relationships, overall and per genre, kept current with the
+ * co-star graph.
+ * <p>
+ * Each ranking is an ordered set of packed (count, actor) keys, so the top N are read off its high end in
+ * O(N log A) and a new relationship or removed actor only moves that actor's keys. A movie counts towards every
+ * comma separated part of its genre, so the IMDb form "Drama,Romance" ranks under both.
+ * </p>
+ * Lookups take the graph's read lock; updates arrive through the listener callbacks under the write lock.
+ */
+class ActorLeaderboard implements CoStarGraph.Listener {
+
+    private static final String[] NO_GENRES = new String[0];
+
+    private final CoStarGraph graph;
+
+    private final TreeSet<Long> overall = new TreeSet<>();
+    private final Map<String, TreeSet<Long>> byGenre = new HashMap<>();
+    private int[] counts = new int[0];
+
+    // genres of each movie split once, by movie index
+    private String[][] movieGenres = new String[0][];
+
+    // scratch space, only touched under the graph's write lock
+    private final IntList movieScratch = new IntList();
+    private final Map<String, int[]> genreScratch = new HashMap<>();
+
+
+    ActorLeaderboard(CoStarGraph graph) {
+        this.graph = graph;
+        graph.addListener(this);
+    }
+
+
+    /**
+     * @param n     number of actors wanted
+     * @param genre genre to rank by, or null for all movies
+     * @return up to n actors with the most movies, each with actorId, name and totalMovies
+     */
+    List<Map<String, Object>> top(int n, String genre) {
+        graph.lock().readLock().lock();
+        try {
+            TreeSet<Long> ranking = genre == null ? overall : byGenre.get(genre);
+            if (ranking == null) {
+                return Collections.emptyList();
+            }
+            List<Map<String, Object>> actors = new ArrayList<>(Math.min(n, ranking.size()));
+            Iterator<Long> keys = ranking.descendingIterator();
+            while (actors.size() < n && keys.hasNext()) {
+                long key = keys.next();
+                int actor = actorOf(key);
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("actorId", graph.actorIdAt(actor));
+                entry.put("name", graph.actorNameAt(actor));
+                entry.put("totalMovies", (int) (key >>> 32));
+                actors.add(entry);
+            }
+            return actors;
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void graphLoaded() {
+        overall.clear();
+        byGenre.clear();
+        counts = new int[graph.actorSlots()];
+        movieGenres = new String[graph.movieSlots()][];
+        for (int actor = 0; actor < graph.actorSlots(); actor++) {
+            if (graph.actorIdAt(actor) != null) {
+                rank(actor, true);
+            }
+        }
+    }
+
+
+    @Override
+    public void actorAdded(int actor) {
+        ensureCapacity(actor + 1);
+    }
+
+
+    @Override
+    public void movieAdded(int movie) {
+        // counts only change with relationships
+    }
+
+
+    @Override
+    public void relationshipAdded(int actor, int movie) {
+        ensureCapacity(actor + 1);
+        int count = counts[actor]++;
+        move(overall, actor, count, count + 1);
+        for (String genre : genresOf(movie)) {
+            // the new relationship is already in the actor's movies
+            int genreCount = countInGenre(actor, genre);
+            move(ranking(genre), actor, genreCount - 1, genreCount);
+        }
+    }
+
+
+    @Override
+    public void actorRemoved(int actor) {
+        if (actor < counts.length) {
+            rank(actor, false);
+            counts[actor] = 0;
+        }
+    }
+
+
+    /**
+     * Adds or removes every key of an actor, counting from its current movies
+     */
+    private void rank(int actor, boolean add) {
+        graph.moviesOf(actor, movieScratch);
+        if (movieScratch.size() == 0) {
+            return;
+        }
+        counts[actor] = movieScratch.size();
+        update(overall, key(movieScratch.size(), actor), add);
+
+        genreScratch.clear();
+        for (int i = 0; i < movieScratch.size(); i++) {
+            for (String genre : genresOf(movieScratch.get(i))) {
+                int[] count = genreScratch.get(genre);
+                if (count == null) {
+                    genreScratch.put(genre, new int[]{1});
+                } else {
+                    count[0]++;
+                }
+            }
+        }
+        for (Map.Entry<String, int[]> entry : genreScratch.entrySet()) {
+            update(ranking(entry.getKey()), key(entry.getValue()[0], actor), add);
+        }
+    }
+
+
+    private int countInGenre(int actor, String genre) {
+        graph.moviesOf(actor, movieScratch);
+        int count = 0;
+        for (int i = 0; i < movieScratch.size(); i++) {
+            for (String movieGenre : genresOf(movieScratch.get(i))) {
+                if (movieGenre.equals(genre)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+
+    private String[] genresOf(int movie) {
+        if (movie >= movieGenres.length) {
+            movieGenres = Arrays.copyOf(movieGenres, Math.max(movie + 1, movieGenres.length * 2));
+        }
+        String[] genres = movieGenres[movie];
+        if (genres == null) {
+            genres = split(graph.movieGenreAt(movie));
+            movieGenres[movie] = genres;
+        }
+        return genres;
+    }
+
+
+    /**
+     * @param genre genre as stored on a movie
+     * @return its distinct non-empty comma separated parts
+     */
+    static String[] split(String genre) {
+        if (genre == null || genre.isEmpty()) {
+            return NO_GENRES;
+        }
+        List<String> parts = new ArrayList<>(2);
+        for (String part : genre.split(",")) {
+            part = part.trim();
+            if (!part.isEmpty() && !parts.contains(part)) {
+                parts.add(part);
+            }
+        }
+        return parts.toArray(NO_GENRES);
+    }
+
+
+    private TreeSet<Long> ranking(String genre) {
+        TreeSet<Long> ranking = byGenre.get(genre);
+        if (ranking == null) {
+            ranking = new TreeSet<>();
+            byGenre.put(genre, ranking);
+        }
+        return ranking;
+    }
+
+
+    private static void move(TreeSet<Long> ranking, int actor, int from, int to) {
+        if (from > 0) {
+            ranking.remove(key(from, actor));
+        }
+        if (to > 0) {
+            ranking.add(key(to, actor));
+        }
+    }
+
+
+    private static void update(TreeSet<Long> ranking, long key, boolean add) {
+        if (add) {
+            ranking.add(key);
+        } else {
+            ranking.remove(key);
+        }
+    }
+
+
+    /**
+     * Orders by count, then by lower actor index first among equal counts
+     */
+    private static long key(int count, int actor) {
+        return ((long) count << 32) | (Integer.MAX_VALUE - actor);
+    }
+
+
+    private static int actorOf(long key) {
+        return Integer.MAX_VALUE - (int) key;
+    }
+
+
+    private void ensureCapacity(int size) {
+        if (counts.length < size) {
+            counts = Arrays.copyOf(counts, Math.max(size, counts.length * 2));
+        }
+    }
+}
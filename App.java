@@ -4,19 +4,58 @@ import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class App {
-    static int PORT = 8080;
+    static int PORT = Settings.getInt("server.port", 8080);
 
     public static void main(String[] args) throws IOException {
 
-        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", PORT), 0);
+        // Make sure actorId / movieId lookups are index seeks before any traffic arrives
+        if (!SchemaMigration.ensure() && Settings.getBoolean("schema.strict", false)) {
+            System.out.println("Refusing to start without the required schema (schema.strict=true)");
+            Utils.close();
+            System.exit(1);
+        }
+
+        // Restore the resident co-star graph from its snapshot, or load it from Neo4j, before accepting requests
+        GraphStore store = GraphStore.fromSettings();
+        CoStarGraph graph = store.open();
+
+        // Connections the OS may queue before accept, 0 would leave it to the platform default
+        int backlog = Settings.getInt("server.backlog", 1024);
+        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", PORT), backlog);
+
+        // Without an executor every exchange runs on the single dispatcher thread
+        ExecutorService executor = RequestExecutor.create();
+        server.setExecutor(executor);
 
 
         // Handling  context for  REST API endpoint requests
         // The context will be handled by an instance of SixDegreesOfKevinBacon
-        server.createContext("/api/v1", new SixDegreesOfKevinBacon());
-
+        SixDegreesOfKevinBacon api = new SixDegreesOfKevinBacon(graph);
+        server.createContext("/api/v1", RequestExecutor.shedding(api));
+
+        // Prometheus scrape endpoint, not shed so the metrics stay visible while the server is overloaded
+        server.createContext("/metrics", Metrics.handler(api.entityCache(), api.reads()));
+
+
+        // Stop accepting connections, let in-flight requests finish, snapshot the graph, then release the driver
+        int drainSeconds = Settings.getInt("server.drainSeconds", 10);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down, draining requests...");
+            // one grace period for both the server's handlers and the executor's queue
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+            server.stop(drainSeconds);
+            RequestExecutor.drain(executor, deadline);
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.out.println("Final snapshot failed: " + e.getMessage());
+            }
+            Utils.close();
+        }));
 
         server.start();
         System.out.printf("Server started on port %d...\n", PORT);
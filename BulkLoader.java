@@ -0,0 +1,293 @@
+package ca.yorku.eecs;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads an NDJSON stream of actors, movies and ACTED_IN relationships, one object per line:
+ * <pre>
+ * {"type": "actor", "actorId": "nm0000102", "name": "Kevin Bacon"}
+ * {"type": "movie", "movieId": "tt0087277", "name": "Footloose", "genre": "Drama"}
+ * {"type": "relationship", "actorId": "nm0000102", "movieId": "tt0087277"}
+ * </pre>
+ * Lines are parsed as they arrive and written in UNWIND batches, one transaction per batch. Actors and movies
+ * of a batch are written before its relationships, so a relationship may refer to nodes earlier in the stream.
+ * Rows that cannot be applied are reported by line number and do not stop the load.
+ */
+class BulkLoader {
+
+    static final int DEFAULT_BATCH_SIZE = Settings.getInt("bulk.batchSize", 1000);
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private static final String ACTOR_BATCH = "UNWIND $rows AS row " +
+            "OPTIONAL MATCH (existing:Actor {actorId: row.actorId}) " +
+            "WITH row, count(existing) = 0 AS isNew " +
+            "MERGE (a:Actor {actorId: row.actorId}) ON CREATE SET a.name = row.name " +
+            "RETURN row.line AS line, isNew";
+
+    private static final String MOVIE_BATCH = "UNWIND $rows AS row " +
+            "OPTIONAL MATCH (existing:Movie {movieId: row.movieId}) " +
+            "WITH row, count(existing) = 0 AS isNew " +
+            "MERGE (m:Movie {movieId: row.movieId}) ON CREATE SET m.name = row.name, m.genre = row.genre " +
+            "RETURN row.line AS line, isNew";
+
+    private static final String RELATIONSHIP_BATCH = "UNWIND $rows AS row " +
+            "MATCH (a:Actor {actorId: row.actorId}) " +
+            "MATCH (m:Movie {movieId: row.movieId}) " +
+            "OPTIONAL MATCH (a)-[existing:ACTED_IN]->(m) " +
+            "WITH row, a, m, count(existing) = 0 AS isNew " +
+            "MERGE (a)-[:ACTED_IN]->(m) " +
+            "RETURN row.line AS line, isNew";
+
+    private final CoStarGraph graph;
+    private final EntityCache entityCache;
+    private final Session session;
+    private final int batchSize;
+
+    // pending rows keyed by id, so a duplicate inside one batch is caught before it reaches the database
+    private final Map<String, Map<String, Object>> actorRows = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> movieRows = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> relationshipRows = new LinkedHashMap<>();
+
+    private int lines;
+    // lines up to this one are written, or were reported as errors
+    private int loadedLines;
+    private int actorsAdded;
+    private int moviesAdded;
+    private int relationshipsAdded;
+    private int errorCount;
+    private final List<Map<String, Object>> errors = new ArrayList<>();
+    private String failure;
+
+
+    /**
+     * @param graph       co-star graph to keep in step with the database
+     * @param entityCache cached responses to drop as rows are written
+     * @param session     session of the request's unit of work
+     * @param batchSize   rows per transaction
+     */
+    BulkLoader(CoStarGraph graph, EntityCache entityCache, Session session, int batchSize) {
+        this.graph = graph;
+        this.entityCache = entityCache;
+        this.session = session;
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * Reads the stream to the end, or until a batch fails to commit or the body cannot be read any further
+     *
+     * @param reader NDJSON body
+     * @return report with counts of created rows and per-line errors, and the failure if the load stopped early
+     */
+    Map<String, Object> load(BufferedReader reader) {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                accept(lines, line);
+                if (actorRows.size() + movieRows.size() + relationshipRows.size() >= batchSize) {
+                    flush();
+                }
+            }
+            flush();
+        } catch (RuntimeException e) {
+            // rows of earlier batches stay committed, the report says where the load stopped
+            failure = "Batch ending at line " + lines + " failed: " + e.getMessage();
+        } catch (IOException e) {
+            // the rows read since the last batch may be cut off, so they are not written
+            failure = "Request body could not be read after line " + lines + ", lines after " + loadedLines
+                    + " were not loaded: " + e.getMessage();
+        }
+        return report();
+    }
+
+
+    /**
+     * @return true if a batch failed to commit or the body could not be read, and the load stopped early
+     */
+    boolean failed() {
+        return failure != null;
+    }
+
+
+    private void accept(int lineNumber, String line) {
+        try {
+            JSONObject row = new JSONObject(line);
+            String type = row.has("type") ? row.getString("type") : "";
+            if ("actor".equals(type)) {
+                String actorId = row.has("actorId") ? row.getString("actorId") : null;
+                String name = row.has("name") ? row.getString("name") : null;
+                if (actorId == null || actorId.isEmpty() || name == null || name.isEmpty()) {
+                    error(lineNumber, "actorId and name are required");
+                } else if (actorRows.containsKey(actorId)) {
+                    error(lineNumber, "Actor already exists");
+                } else {
+                    actorRows.put(actorId, row(lineNumber, "actorId", actorId, "name", name));
+                }
+            } else if ("movie".equals(type)) {
+                String movieId = row.has("movieId") ? row.getString("movieId") : null;
+                String name = row.has("name") ? row.getString("name") : null;
+                String genre = row.has("genre") ? row.getString("genre") : null;
+                if (movieId == null || movieId.isEmpty() || name == null || name.isEmpty()
+                        || genre == null || genre.isEmpty()) {
+                    error(lineNumber, "movieId, name and genre are required");
+                } else if (movieRows.containsKey(movieId)) {
+                    error(lineNumber, "Movie already exists");
+                } else {
+                    movieRows.put(movieId, row(lineNumber, "movieId", movieId, "name", name, "genre", genre));
+                }
+            } else if ("relationship".equals(type)) {
+                String actorId = row.has("actorId") ? row.getString("actorId") : null;
+                String movieId = row.has("movieId") ? row.getString("movieId") : null;
+                String key = actorId + '\u0000' + movieId;
+                if (actorId == null || actorId.isEmpty() || movieId == null || movieId.isEmpty()) {
+                    error(lineNumber, "actorId and movieId are required");
+                } else if (relationshipRows.containsKey(key)) {
+                    error(lineNumber, "Relationship ACTED_IN already exist");
+                } else {
+                    relationshipRows.put(key, row(lineNumber, "actorId", actorId, "movieId", movieId));
+                }
+            } else {
+                error(lineNumber, "type must be actor, movie or relationship");
+            }
+        } catch (JSONException e) {
+            error(lineNumber, "JSON format not valid");
+        }
+    }
+
+
+    /**
+     * Writes every pending row in one transaction, then applies the created ones to the co-star graph and
+     * drops their cached responses
+     */
+    private void flush() {
+        if (actorRows.isEmpty() && movieRows.isEmpty() && relationshipRows.isEmpty()) {
+            loadedLines = lines;
+            return;
+        }
+        List<Map<String, Object>> actors = new ArrayList<>(actorRows.values());
+        List<Map<String, Object>> movies = new ArrayList<>(movieRows.values());
+        List<Map<String, Object>> relationships = new ArrayList<>(relationshipRows.values());
+        int batchEnd = lines;
+        actorRows.clear();
+        movieRows.clear();
+        relationshipRows.clear();
+
+        List<List<Record>> results = session.writeTransaction(tx -> {
+            List<List<Record>> batch = new ArrayList<>(3);
+            batch.add(actors.isEmpty() ? new ArrayList<>()
+                    : tx.run(ACTOR_BATCH, Values.parameters("rows", actors)).list());
+            batch.add(movies.isEmpty() ? new ArrayList<>()
+                    : tx.run(MOVIE_BATCH, Values.parameters("rows", movies)).list());
+            batch.add(relationships.isEmpty() ? new ArrayList<>()
+                    : tx.run(RELATIONSHIP_BATCH, Values.parameters("rows", relationships)).list());
+            return batch;
+        });
+        Utils.bookmarkCommitted(session.lastBookmark());
+        loadedLines = batchEnd;
+
+        Map<Integer, Map<String, Object>> byLine = new HashMap<>();
+        for (Map<String, Object> row : actors) {
+            byLine.put((Integer) row.get("line"), row);
+        }
+        for (Record record : results.get(0)) {
+            int line = record.get("line").asInt();
+            if (record.get("isNew").asBoolean()) {
+                actorsAdded++;
+                Map<String, Object> row = byLine.get(line);
+                graph.addActor((String) row.get("actorId"), (String) row.get("name"));
+                entityCache.invalidate(EntityCache.actorKey((String) row.get("actorId")));
+            } else {
+                error(line, "Actor already exists");
+            }
+        }
+
+        byLine.clear();
+        for (Map<String, Object> row : movies) {
+            byLine.put((Integer) row.get("line"), row);
+        }
+        for (Record record : results.get(1)) {
+            int line = record.get("line").asInt();
+            if (record.get("isNew").asBoolean()) {
+                moviesAdded++;
+                Map<String, Object> row = byLine.get(line);
+                graph.addMovie((String) row.get("movieId"), (String) row.get("name"), (String) row.get("genre"));
+                entityCache.invalidate(EntityCache.movieKey((String) row.get("movieId")));
+            } else {
+                error(line, "Movie already exists");
+            }
+        }
+
+        byLine.clear();
+        for (Map<String, Object> row : relationships) {
+            byLine.put((Integer) row.get("line"), row);
+        }
+        for (Record record : results.get(2)) {
+            int line = record.get("line").asInt();
+            Map<String, Object> row = byLine.remove(line);
+            if (record.get("isNew").asBoolean()) {
+                relationshipsAdded++;
+                graph.addRelationship((String) row.get("actorId"), (String) row.get("movieId"));
+                entityCache.invalidate(EntityCache.actorKey((String) row.get("actorId")));
+                entityCache.invalidate(EntityCache.movieKey((String) row.get("movieId")));
+            } else {
+                error(line, "Relationship ACTED_IN already exist");
+            }
+        }
+        // relationship rows the MATCH dropped
+        for (Integer line : byLine.keySet()) {
+            error(line, "Actor/Movie does not exist");
+        }
+    }
+
+
+    private Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("lines", lines);
+        report.put("actorsAdded", actorsAdded);
+        report.put("moviesAdded", moviesAdded);
+        report.put("relationshipsAdded", relationshipsAdded);
+        report.put("errorCount", errorCount);
+        report.put("errors", errors);
+        if (failure != null) {
+            report.put("failure", failure);
+        }
+        return report;
+    }
+
+
+    private void error(int line, String message) {
+        errorCount++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("line", line);
+            error.put("error", message);
+            errors.add(error);
+        }
+    }
+
+
+    private static Map<String, Object> row(int line, String... keyValues) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("line", line);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put(keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
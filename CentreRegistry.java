@@ -0,0 +1,183 @@
+package ca.yorku.eecs;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Distance tables for the centre actors Bacon numbers are measured from, Kevin Bacon's and any other asked for.
+ * <p>
+ * The default centre's table is always kept. Any other centre gets its table on the first request naming it,
+ * built with one BFS under the graph's read lock and kept current from then on like the default one. Tables
+ * are kept in least recently used order and the oldest are dropped once all of them together take more than
+ * centres.memoryBudgetMB; the most recently used one is always kept, whatever its size.
+ * </p>
+ * Only the default centre is allowed unless centres.hubs lists other allowed ones, comma separated, or is * to
+ * allow any actor; every new centre costs a full BFS, so that is not open to clients by default.
+ */
+class CentreRegistry {
+
+    static final String ANY_ACTOR = "*";
+
+    private final CoStarGraph graph;
+    private final String defaultCentre;
+    private final DistanceTable defaultTable;
+    private final Set<String> hubs;
+    private final boolean anyActor;
+    private final long budgetBytes;
+
+    // access ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Centre> centres = new LinkedHashMap<>(16, 0.75f, true);
+
+
+    /**
+     * @param graph         co-star graph the tables are kept over
+     * @param defaultCentre centre whose table is built with the graph and never dropped
+     * @param hubs          allowed centres besides the default one, * to allow every actor
+     * @param budgetBytes   memory the other tables may take together
+     */
+    CentreRegistry(CoStarGraph graph, String defaultCentre, Set<String> hubs, long budgetBytes) {
+        this.graph = graph;
+        this.defaultCentre = defaultCentre;
+        this.defaultTable = new DistanceTable(graph, defaultCentre);
+        this.hubs = hubs;
+        this.anyActor = hubs.contains(ANY_ACTOR);
+        this.budgetBytes = budgetBytes;
+    }
+
+
+    /**
+     * @return registry configured by centres.hubs and centres.memoryBudgetMB
+     */
+    static CentreRegistry fromSettings(CoStarGraph graph, String defaultCentre) {
+        Set<String> hubs = new HashSet<>();
+        Collections.addAll(hubs, ActorLeaderboard.split(Settings.get("centres.hubs", "")));
+        long budget = Settings.getLong("centres.memoryBudgetMB", 256) << 20;
+        return new CentreRegistry(graph, defaultCentre, hubs, budget);
+    }
+
+
+    DistanceTable defaultTable() {
+        return defaultTable;
+    }
+
+
+    /**
+     * @return whether the actor may be used as a centre
+     */
+    boolean allowed(String centreId) {
+        return defaultCentre.equals(centreId) || anyActor || hubs.contains(centreId);
+    }
+
+
+    /**
+     * Table of the centre, built first if this is the first request for it since it was last dropped
+     *
+     * @param centreId an {@link #allowed} centre
+     * @return the table, or null if the centre is not an actor of the graph
+     */
+    DistanceTable table(String centreId) {
+        if (defaultCentre.equals(centreId)) {
+            return defaultTable;
+        }
+        graph.lock().readLock().lock();
+        try {
+            if (graph.actorIndex(centreId) < 0) {
+                return null;
+            }
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+
+        Centre centre;
+        synchronized (this) {
+            centre = centres.get(centreId);
+            if (centre == null) {
+                centre = new Centre(centreId);
+                centres.put(centreId, centre);
+            }
+        }
+        // built outside the registry's lock so lookups of other centres are not held up by the BFS
+        DistanceTable table = centre.table();
+        evict(centre);
+        return table;
+    }
+
+
+    /**
+     * @return approximate heap footprint of every table but the default one, in bytes
+     */
+    synchronized long footprintBytes() {
+        long total = 0;
+        for (Centre centre : centres.values()) {
+            total += centre.footprintBytes();
+        }
+        return total;
+    }
+
+
+    synchronized int size() {
+        return centres.size();
+    }
+
+
+    /**
+     * Drops the least recently used tables until the others fit in the budget
+     *
+     * @param kept centre of the request, never dropped
+     */
+    private synchronized void evict(Centre kept) {
+        long total = 0;
+        for (Centre centre : centres.values()) {
+            total += centre.footprintBytes();
+        }
+        Iterator<Map.Entry<String, Centre>> eldest = centres.entrySet().iterator();
+        while (total > budgetBytes && eldest.hasNext()) {
+            Centre centre = eldest.next().getValue();
+            if (centre == kept || !centre.built()) {
+                // unbuilt ones are still being built for another request, which is about to use them
+                continue;
+            }
+            total -= centre.footprintBytes();
+            eldest.remove();
+            centre.release();
+        }
+    }
+
+
+    /**
+     * A centre's table, built once by whichever request needs it first
+     */
+    private final class Centre {
+        private final String centreId;
+        private volatile DistanceTable table;
+
+        Centre(String centreId) {
+            this.centreId = centreId;
+        }
+
+        synchronized DistanceTable table() {
+            if (table == null) {
+                // other requests for this centre wait here, not on the graph's lock
+                table = DistanceTable.build(graph, centreId);
+            }
+            return table;
+        }
+
+        boolean built() {
+            return table != null;
+        }
+
+        long footprintBytes() {
+            DistanceTable built = table;
+            return built == null ? 0 : built.footprintBytes();
+        }
+
+        void release() {
+            graph.removeListener(table);
+        }
+    }
+}
@@ -0,0 +1,1086 @@
+package ca.yorku.eecs;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resident copy of the bipartite Actor/Movie graph used to answer path queries without Neo4j.
+ * <p>
+ * actorId and movieId strings are interned to dense ints. Edges loaded at startup live in CSR arrays
+ * (neighbours of node i are edges[offsets[i] .. offsets[i + 1])); edges added afterwards go to a small
+ * per-node overlay which is folded back into the CSR arrays once it grows large enough.
+ * </p>
+ * Searches take the read lock, writes take the write lock. A graph that failed to load stays cold and
+ * callers fall back to Cypher.
+ */
+public class CoStarGraph {
+
+    private static final int MIN_COMPACTION_EDGES = 4096;
+    // checks of the graph against the database before a mismatch counts, see verify
+    private static final int VERIFY_ATTEMPTS = 3;
+    private static final long VERIFY_RETRY_MILLIS = 200;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IdDictionary actors;
+    private final IdDictionary movies;
+
+    // CSR adjacency, covers nodes that existed at the last (re)build
+    private int[] actorOffsets = {0};
+    private int[] actorEdges = new int[0];
+    private int[] movieOffsets = {0};
+    private int[] movieEdges = new int[0];
+
+    // edges added since the last (re)build
+    private int[][] actorExtra = new int[0][];
+    private int[] actorExtraSize = new int[0];
+    private int[][] movieExtra = new int[0][];
+    private int[] movieExtraSize = new int[0];
+    private int extraEdges;
+
+    // names and genres by index, so listings can be answered without Neo4j; null for a tombstone
+    private String[] actorNames = new String[16];
+    private String[] movieNames = new String[16];
+    private String[] movieGenres = new String[16];
+
+    private volatile boolean warm;
+    // whether the graph is known to hold the same actors and movies as Neo4j, see verify
+    private volatile boolean inSync;
+    // bumped by every change, under the write lock
+    private long version;
+
+    private GraphJournal journal;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // search scratch space sized to the graph, reused across requests whatever thread they run on; requests on
+    // virtual threads would each get a fresh one from a thread local
+    private final ArrayBlockingQueue<Traversal> traversals =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+
+    public CoStarGraph() {
+        this(16, 16);
+    }
+
+    CoStarGraph(int expectedActors, int expectedMovies) {
+        actors = new IdDictionary(expectedActors);
+        movies = new IdDictionary(expectedMovies);
+    }
+
+
+    /**
+     * Builds a graph from the current contents of Neo4j. If the database cannot be read the returned graph
+     * is cold and every query keeps going to Cypher.
+     *
+     * @return the loaded graph
+     */
+    public static CoStarGraph loadFromNeo4j() {
+        CoStarGraph graph = new CoStarGraph();
+        try (Session session = Utils.getSession()) {
+            graph.loadFrom(session);
+        } catch (Exception e) {
+            System.out.println("Co-star graph not loaded, falling back to Cypher: " + e.getMessage());
+        }
+        return graph;
+    }
+
+
+    /**
+     * Loads every Actor, Movie and ACTED_IN relationship and marks the graph warm
+     *
+     * @param session open Neo4j session
+     */
+    void loadFrom(Session session) {
+        lock.writeLock().lock();
+        try {
+            StatementResult actorResult = session.run("MATCH (a:Actor) RETURN a.actorId AS actorId, a.name AS name");
+            while (actorResult.hasNext()) {
+                Record record = actorResult.next();
+                int actor = actors.intern(record.get("actorId").asString());
+                actorNames = set(actorNames, actor, string(record, "name"));
+            }
+
+            StatementResult movieResult = session.run("MATCH (m:Movie) " +
+                    "RETURN m.movieId AS movieId, m.name AS name, m.genre AS genre");
+            while (movieResult.hasNext()) {
+                Record record = movieResult.next();
+                int movie = movies.intern(record.get("movieId").asString());
+                movieNames = set(movieNames, movie, string(record, "name"));
+                movieGenres = set(movieGenres, movie, string(record, "genre"));
+            }
+
+            int[] edgeActors = new int[1024];
+            int[] edgeMovies = new int[1024];
+            int edgeCount = 0;
+            StatementResult edgeResult = session.run("MATCH (a:Actor)-[:ACTED_IN]->(m:Movie) " +
+                    "RETURN a.actorId AS actorId, m.movieId AS movieId");
+            while (edgeResult.hasNext()) {
+                Record record = edgeResult.next();
+                if (edgeCount == edgeActors.length) {
+                    edgeActors = Arrays.copyOf(edgeActors, edgeCount * 2);
+                    edgeMovies = Arrays.copyOf(edgeMovies, edgeCount * 2);
+                }
+                edgeActors[edgeCount] = actors.intern(record.get("actorId").asString());
+                edgeMovies[edgeCount] = movies.intern(record.get("movieId").asString());
+                edgeCount++;
+            }
+
+            rebuild(edgeActors, edgeMovies, edgeCount);
+            version++;
+            warm = true;
+            inSync = true;
+            for (Listener listener : listeners) {
+                listener.graphLoaded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.printf("Co-star graph loaded: %d actors, %d movies, %d relationships\n",
+                actorCount(), movieCount(), edgeCount());
+    }
+
+
+    /**
+     * Builds a warm graph from a snapshot
+     *
+     * @param state dictionaries and CSR arrays read from disk
+     * @return the restored graph
+     */
+    static CoStarGraph restore(State state) {
+        CoStarGraph graph = new CoStarGraph(state.actorIds.length, state.movieIds.length);
+        for (String actorId : state.actorIds) {
+            graph.actors.append(actorId);
+        }
+        for (String movieId : state.movieIds) {
+            graph.movies.append(movieId);
+        }
+        graph.actorNames = state.actorNames;
+        graph.movieNames = state.movieNames;
+        graph.movieGenres = state.movieGenres;
+        graph.actorOffsets = state.actorOffsets;
+        graph.actorEdges = state.actorEdges;
+        graph.movieOffsets = state.movieOffsets;
+        graph.movieEdges = state.movieEdges;
+        graph.actorExtra = new int[state.actorIds.length][];
+        graph.actorExtraSize = new int[state.actorIds.length];
+        graph.movieExtra = new int[state.movieIds.length][];
+        graph.movieExtraSize = new int[state.movieIds.length];
+        graph.warm = true;
+        return graph;
+    }
+
+
+    /**
+     * Copies the graph into compact CSR form for a snapshot. Caller holds at least the read lock.
+     *
+     * @return dictionaries and CSR arrays, relationships of removed actors dropped
+     */
+    State capture() {
+        int total = actorEdges.length + extraEdges;
+        int[] edgeActors = new int[total];
+        int[] edgeMovies = new int[total];
+        int count = liveEdges(edgeActors, edgeMovies);
+        int[][] csr = csr(actors.size(), movies.size(), edgeActors, edgeMovies, count);
+
+        State state = new State();
+        state.actorIds = actors.toArray();
+        state.movieIds = movies.toArray();
+        state.actorNames = Arrays.copyOf(actorNames, actors.size());
+        state.movieNames = Arrays.copyOf(movieNames, movies.size());
+        state.movieGenres = Arrays.copyOf(movieGenres, movies.size());
+        state.actorOffsets = csr[0];
+        state.actorEdges = csr[1];
+        state.movieOffsets = csr[2];
+        state.movieEdges = csr[3];
+        return state;
+    }
+
+
+    /**
+     * Every later change is appended to the journal, so it can be replayed on top of a snapshot
+     *
+     * @param journal open journal, or null to stop journaling
+     */
+    void setJournal(GraphJournal journal) {
+        lock.writeLock().lock();
+        try {
+            this.journal = journal;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return true once the graph holds a full copy of the database
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+
+    /**
+     * Registers a listener notified of every change, under the write lock. Listeners added after the graph
+     * is loaded are told so immediately.
+     *
+     * @param listener structure derived from the graph
+     */
+    void addListener(Listener listener) {
+        lock.writeLock().lock();
+        try {
+            listeners.add(listener);
+            if (warm) {
+                listener.graphLoaded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Registers a listener that derived its state from the graph itself, under the read lock, instead of
+     * being given it through {@link Listener#graphLoaded()}. Nothing is registered if the graph changed
+     * since, as the listener would have missed that change.
+     *
+     * @param listener structure derived from the graph
+     * @param version  {@link #version()} read under the same read lock the state was derived under
+     * @return whether the listener was registered
+     */
+    boolean addListenerAt(Listener listener, long version) {
+        lock.writeLock().lock();
+        try {
+            if (!warm || this.version != version) {
+                return false;
+            }
+            listeners.add(listener);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return counter of changes made to the graph; caller holds at least the read lock
+     */
+    long version() {
+        return version;
+    }
+
+
+    /**
+     * Stops notifying a listener; it keeps whatever state it had
+     */
+    void removeListener(Listener listener) {
+        lock.writeLock().lock();
+        try {
+            listeners.remove(listener);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param actorId actor to add, or to rename if already present
+     * @param name    actor's name
+     */
+    public void addActor(String actorId, String name) {
+        lock.writeLock().lock();
+        try {
+            int actor = internActor(actorId);
+            actorNames = set(actorNames, actor, name);
+            version++;
+            if (journal != null) {
+                journal.actorAdded(actorId, name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param movieId movie to add
+     * @param name    movie's name
+     * @param genre   movie's genre as stored in Neo4j
+     */
+    public void addMovie(String movieId, String name, String genre) {
+        lock.writeLock().lock();
+        try {
+            int movie = movies.intern(movieId);
+            movieNames = set(movieNames, movie, name);
+            movieGenres = set(movieGenres, movie, genre);
+            version++;
+            if (journal != null) {
+                journal.movieAdded(movieId, name, genre);
+            }
+            for (Listener listener : listeners) {
+                listener.movieAdded(movie);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Records an ACTED_IN relationship. Callers only invoke this once the relationship is stored in Neo4j.
+     *
+     * @param actorId actor side of the relationship
+     * @param movieId movie side of the relationship
+     */
+    public void addRelationship(String actorId, String movieId) {
+        lock.writeLock().lock();
+        try {
+            int actor = internActor(actorId);
+            int movie = movies.intern(movieId);
+            ensureOverlayCapacity();
+            appendExtra(actorExtra, actorExtraSize, actor, movie);
+            appendExtra(movieExtra, movieExtraSize, movie, actor);
+            extraEdges++;
+            version++;
+            if (journal != null) {
+                journal.relationshipAdded(actorId, movieId);
+            }
+            for (Listener listener : listeners) {
+                listener.relationshipAdded(actor, movie);
+            }
+            if (extraEdges > Math.max(MIN_COMPACTION_EDGES, actorEdges.length / 4)) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes an actor and, implicitly, all of its ACTED_IN relationships
+     *
+     * @param actorId actor to remove
+     */
+    public void removeActor(String actorId) {
+        lock.writeLock().lock();
+        try {
+            int actor = actors.remove(actorId);
+            version++;
+            if (journal != null) {
+                journal.actorRemoved(actorId);
+            }
+            if (actor >= 0) {
+                // the removed actor's own adjacency stays readable until the next compaction
+                for (Listener listener : listeners) {
+                    listener.actorRemoved(actor);
+                }
+                // an actor only ever seen in a relationship may have no name slot
+                if (actor < actorNames.length) {
+                    actorNames[actor] = null;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Number of movies separating two actors, counted the same way as the Bacon number
+     *
+     * @param fromActorId start actor
+     * @param toActorId   target actor
+     * @return the distance, 0 if both are the same actor, or -1 if either is unknown or they are not connected
+     */
+    public int distance(String fromActorId, String toActorId) {
+        lock.readLock().lock();
+        try {
+            int from = actors.indexOf(fromActorId);
+            int to = actors.indexOf(toActorId);
+            if (from < 0 || to < 0) {
+                return -1;
+            }
+            if (from == to) {
+                return 0;
+            }
+            Traversal t = borrowTraversal();
+            try {
+                return search(from, to, t);
+            } finally {
+                traversals.offer(t);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Shortest chain of actors from one actor to another, both ends included
+     *
+     * @param fromActorId start actor
+     * @param toActorId   target actor
+     * @return the actorIds on the path, or null if either is unknown or they are not connected
+     */
+    public List<String> path(String fromActorId, String toActorId) {
+        lock.readLock().lock();
+        try {
+            int from = actors.indexOf(fromActorId);
+            int to = actors.indexOf(toActorId);
+            if (from < 0 || to < 0) {
+                return null;
+            }
+            if (from == to) {
+                return Collections.singletonList(fromActorId);
+            }
+            Traversal t = borrowTraversal();
+            try {
+                int length = search(from, to, t);
+                if (length < 0) {
+                    return null;
+                }
+                List<String> path = new ArrayList<>(length + 1);
+                for (int actor = t.meet; actor != from; actor = t.forward.parent[actor]) {
+                    path.add(actors.idAt(actor));
+                }
+                path.add(fromActorId);
+                Collections.reverse(path);
+                for (int actor = t.meet; actor != to; ) {
+                    actor = t.backward.parent[actor];
+                    path.add(actors.idAt(actor));
+                }
+                return path;
+            } finally {
+                traversals.offer(t);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Compares the numbers of actors, movies and ACTED_IN relationships with the database's and records whether
+     * they agree. A graph loaded from Neo4j starts in sync; one restored from a snapshot is only trusted once
+     * this passed, and any mismatch, e.g. after a write made behind the server's back, sends reads back to
+     * Cypher until a later check agrees again. A mismatch is checked again a few times before it counts, as a
+     * write committed to Neo4j but not applied to the graph yet makes the numbers differ for a moment.
+     *
+     * @param session open Neo4j session
+     * @return whether the graph is in sync
+     */
+    boolean verify(Session session) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            long databaseActors = session.run("MATCH (a:Actor) RETURN count(a) AS n").single().get("n").asLong();
+            long databaseMovies = session.run("MATCH (m:Movie) RETURN count(m) AS n").single().get("n").asLong();
+            long databaseEdges = session.run("MATCH (:Actor)-[r:ACTED_IN]->(:Movie) RETURN count(r) AS n")
+                    .single().get("n").asLong();
+            boolean matches;
+            lock.readLock().lock();
+            try {
+                matches = warm && actors.liveCount() == databaseActors && movies.liveCount() == databaseMovies
+                        && liveEdgeCount() == databaseEdges;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (matches || attempt == VERIFY_ATTEMPTS) {
+                inSync = matches;
+                return matches;
+            }
+            Thread.sleep(VERIFY_RETRY_MILLIS);
+        }
+    }
+
+
+    /**
+     * @return true while the graph is known to hold what Neo4j holds, see {@link #verify}; reads are only
+     * answered from the graph then
+     */
+    public boolean inSync() {
+        return inSync;
+    }
+
+
+    /**
+     * Trusts a warm graph without checking it, for one that has no database behind it, e.g. a generated one
+     */
+    void assumeInSync() {
+        inSync = warm;
+    }
+
+
+    /**
+     * Existence check answered without Neo4j, so requests for unknown ids can be turned away at once
+     *
+     * @param actorId actor asked for
+     * @return false only if the graph is in sync with Neo4j and does not hold the actor; true leaves the answer
+     * to Neo4j
+     */
+    public boolean mayHaveActor(String actorId) {
+        if (!inSync) {
+            return true;
+        }
+        lock.readLock().lock();
+        try {
+            return actors.indexOf(actorId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param movieId movie asked for
+     * @return false only if the graph is in sync and does not hold the movie, as for {@link #mayHaveActor}
+     */
+    public boolean mayHaveMovie(String movieId) {
+        if (!inSync) {
+            return true;
+        }
+        lock.readLock().lock();
+        try {
+            return movies.indexOf(movieId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    ReentrantReadWriteLock lock() {
+        return lock;
+    }
+
+
+    int actorIndex(String actorId) {
+        return actors.indexOf(actorId);
+    }
+
+
+    int movieIndex(String movieId) {
+        return movies.indexOf(movieId);
+    }
+
+
+    String actorIdAt(int actor) {
+        return actors.idAt(actor);
+    }
+
+
+    String actorNameAt(int actor) {
+        return actor < actorNames.length ? actorNames[actor] : null;
+    }
+
+
+    String movieIdAt(int movie) {
+        return movies.idAt(movie);
+    }
+
+
+    String movieNameAt(int movie) {
+        return movie < movieNames.length ? movieNames[movie] : null;
+    }
+
+
+    String movieGenreAt(int movie) {
+        return movie < movieGenres.length ? movieGenres[movie] : null;
+    }
+
+
+    /**
+     * @return number of actor indexes handed out, including removed actors
+     */
+    int actorSlots() {
+        return actors.size();
+    }
+
+
+    int movieSlots() {
+        return movies.size();
+    }
+
+
+    /**
+     * Collects the movies of an actor. Works for a removed actor until the next compaction.
+     *
+     * @param actor actor index
+     * @param out   cleared and filled with movie indexes
+     */
+    void moviesOf(int actor, IntList out) {
+        out.clear();
+        if (actor < actorOffsets.length - 1) {
+            for (int i = actorOffsets[actor]; i < actorOffsets[actor + 1]; i++) {
+                out.add(actorEdges[i]);
+            }
+        }
+        if (actor < actorExtra.length && actorExtra[actor] != null) {
+            for (int i = 0; i < actorExtraSize[actor]; i++) {
+                out.add(actorExtra[actor][i]);
+            }
+        }
+    }
+
+
+    /**
+     * Collects the live actors of a movie
+     *
+     * @param movie movie index
+     * @param out   cleared and filled with actor indexes
+     */
+    void castOf(int movie, IntList out) {
+        out.clear();
+        if (movie < movieOffsets.length - 1) {
+            for (int i = movieOffsets[movie]; i < movieOffsets[movie + 1]; i++) {
+                if (actors.isLive(movieEdges[i])) {
+                    out.add(movieEdges[i]);
+                }
+            }
+        }
+        if (movie < movieExtra.length && movieExtra[movie] != null) {
+            for (int i = 0; i < movieExtraSize[movie]; i++) {
+                if (actors.isLive(movieExtra[movie][i])) {
+                    out.add(movieExtra[movie][i]);
+                }
+            }
+        }
+    }
+
+
+    public int actorCount() {
+        return actors.liveCount();
+    }
+
+    public int movieCount() {
+        return movies.liveCount();
+    }
+
+    public int edgeCount() {
+        return actorEdges.length + extraEdges;
+    }
+
+
+    /**
+     * Bidirectional breadth first search over actors, stepping actor -> movie -> actor. Each round expands one
+     * whole level of whichever side has the smaller frontier and stops at the end of the first level where the
+     * two sides meet. Uses only the thread's scratch arrays, so a search allocates nothing once they are sized.
+     *
+     * @return number of movie hops from source to target, or -1 if unreachable; the meeting actor is left in t.meet
+     */
+    private int search(int source, int target, Traversal t) {
+        int stamp = t.nextStamp();
+        Frontier forward = t.forward;
+        Frontier backward = t.backward;
+        forward.start(source, stamp);
+        backward.start(target, stamp);
+
+        while (forward.size() > 0 && backward.size() > 0) {
+            boolean forwardSide = forward.size() <= backward.size();
+            int length = expandLevel(forwardSide ? forward : backward, forwardSide ? backward : forward, stamp, t);
+            if (length >= 0) {
+                return length;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Expands every actor on the current level of one side
+     *
+     * @return shortest source-target length through an actor seen by both sides, or -1 if they have not met
+     */
+    private int expandLevel(Frontier side, Frontier other, int stamp, Traversal t) {
+        int best = -1;
+        int levelEnd = side.tail;
+        while (side.head < levelEnd) {
+            int actor = side.queue[side.head++];
+            int reached = side.depth[actor] + 1;
+            for (int pass = 0; pass < 2; pass++) {
+                int[] movieList;
+                int from;
+                int to;
+                if (pass == 0) {
+                    if (actor >= actorOffsets.length - 1) {
+                        continue;
+                    }
+                    movieList = actorEdges;
+                    from = actorOffsets[actor];
+                    to = actorOffsets[actor + 1];
+                } else {
+                    movieList = actor < actorExtra.length ? actorExtra[actor] : null;
+                    if (movieList == null) {
+                        continue;
+                    }
+                    from = 0;
+                    to = actorExtraSize[actor];
+                }
+                for (int i = from; i < to; i++) {
+                    int movie = movieList[i];
+                    if (side.movieMark[movie] == stamp) {
+                        continue;
+                    }
+                    side.movieMark[movie] = stamp;
+                    int met = visitCastOf(movie, actor, reached, side, other, stamp);
+                    if (met >= 0) {
+                        int length = reached + other.depth[met];
+                        if (best < 0 || length < best) {
+                            best = length;
+                            t.meet = met;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Enqueues every unvisited live actor of a movie on one side
+     *
+     * @return the enqueued actor closest to the other side's origin among those it has already seen, or -1
+     */
+    private int visitCastOf(int movie, int parent, int reached, Frontier side, Frontier other, int stamp) {
+        int met = -1;
+        for (int pass = 0; pass < 2; pass++) {
+            int[] castList;
+            int from;
+            int to;
+            if (pass == 0) {
+                if (movie >= movieOffsets.length - 1) {
+                    continue;
+                }
+                castList = movieEdges;
+                from = movieOffsets[movie];
+                to = movieOffsets[movie + 1];
+            } else {
+                castList = movie < movieExtra.length ? movieExtra[movie] : null;
+                if (castList == null) {
+                    continue;
+                }
+                from = 0;
+                to = movieExtraSize[movie];
+            }
+            for (int i = from; i < to; i++) {
+                int actor = castList[i];
+                if (side.actorMark[actor] == stamp || !actors.isLive(actor)) {
+                    continue;
+                }
+                side.actorMark[actor] = stamp;
+                side.parent[actor] = parent;
+                side.depth[actor] = reached;
+                side.queue[side.tail++] = actor;
+                if (other.actorMark[actor] == stamp && (met < 0 || other.depth[actor] < other.depth[met])) {
+                    met = actor;
+                }
+            }
+        }
+        return met;
+    }
+
+
+    private int internActor(String actorId) {
+        int actor = actors.indexOf(actorId);
+        if (actor < 0) {
+            actor = actors.intern(actorId);
+            for (Listener listener : listeners) {
+                listener.actorAdded(actor);
+            }
+        }
+        return actor;
+    }
+
+
+    /**
+     * Stores a value by index, growing the array to cover the dictionary
+     */
+    private static String[] set(String[] values, int index, String value) {
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(index + 1, values.length * 2));
+        }
+        values[index] = value;
+        return values;
+    }
+
+
+    /**
+     * @return the property if it is a string, null if it is missing or of another type, e.g. a list genre
+     */
+    private static String string(Record record, String key) {
+        Value value = record.get(key);
+        return "STRING".equals(value.type().name()) ? value.asString() : null;
+    }
+
+
+    /**
+     * @return a pooled traversal, or a new one if all are in use; hand it back with traversals.offer
+     */
+    private Traversal borrowTraversal() {
+        Traversal t = traversals.poll();
+        if (t == null) {
+            t = new Traversal();
+        }
+        t.ensureCapacity(actors.size(), movies.size());
+        return t;
+    }
+
+
+    /**
+     * Rebuilds the CSR arrays from an edge list and clears the overlay. Caller holds the write lock.
+     */
+    private void rebuild(int[] edgeActors, int[] edgeMovies, int edgeCount) {
+        int actorCount = actors.size();
+        int movieCount = movies.size();
+        int[][] csr = csr(actorCount, movieCount, edgeActors, edgeMovies, edgeCount);
+        actorOffsets = csr[0];
+        actorEdges = csr[1];
+        movieOffsets = csr[2];
+        movieEdges = csr[3];
+        actorExtra = new int[actorCount][];
+        actorExtraSize = new int[actorCount];
+        movieExtra = new int[movieCount][];
+        movieExtraSize = new int[movieCount];
+        extraEdges = 0;
+    }
+
+
+    /**
+     * Counting sort of an edge list into both CSR directions
+     *
+     * @return actor offsets, actor edges, movie offsets, movie edges
+     */
+    private static int[][] csr(int actorCount, int movieCount, int[] edgeActors, int[] edgeMovies, int edgeCount) {
+        int[] newActorOffsets = new int[actorCount + 1];
+        int[] newMovieOffsets = new int[movieCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            newActorOffsets[edgeActors[i] + 1]++;
+            newMovieOffsets[edgeMovies[i] + 1]++;
+        }
+        for (int i = 0; i < actorCount; i++) {
+            newActorOffsets[i + 1] += newActorOffsets[i];
+        }
+        for (int i = 0; i < movieCount; i++) {
+            newMovieOffsets[i + 1] += newMovieOffsets[i];
+        }
+
+        int[] newActorEdges = new int[edgeCount];
+        int[] newMovieEdges = new int[edgeCount];
+        int[] actorCursor = Arrays.copyOf(newActorOffsets, actorCount);
+        int[] movieCursor = Arrays.copyOf(newMovieOffsets, movieCount);
+        for (int i = 0; i < edgeCount; i++) {
+            newActorEdges[actorCursor[edgeActors[i]]++] = edgeMovies[i];
+            newMovieEdges[movieCursor[edgeMovies[i]]++] = edgeActors[i];
+        }
+        return new int[][]{newActorOffsets, newActorEdges, newMovieOffsets, newMovieEdges};
+    }
+
+
+    /**
+     * Folds the overlay into the CSR arrays and drops relationships of removed actors. Caller holds the write lock.
+     */
+    private void compact() {
+        int total = actorEdges.length + extraEdges;
+        int[] edgeActors = new int[total];
+        int[] edgeMovies = new int[total];
+        int count = liveEdges(edgeActors, edgeMovies);
+        rebuild(edgeActors, edgeMovies, count);
+    }
+
+
+    /**
+     * Counts the relationships of live actors, as {@link #liveEdges} would list them
+     */
+    private long liveEdgeCount() {
+        long count = 0;
+        for (int actor = 0; actor < actors.size(); actor++) {
+            if (!actors.isLive(actor)) {
+                continue;
+            }
+            if (actor < actorOffsets.length - 1) {
+                count += actorOffsets[actor + 1] - actorOffsets[actor];
+            }
+            if (actor < actorExtraSize.length) {
+                count += actorExtraSize[actor];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Lists every relationship of a live actor, CSR and overlay alike
+     *
+     * @return number of relationships written to the arrays
+     */
+    private int liveEdges(int[] edgeActors, int[] edgeMovies) {
+        int count = 0;
+        for (int actor = 0; actor < actors.size(); actor++) {
+            if (!actors.isLive(actor)) {
+                continue;
+            }
+            if (actor < actorOffsets.length - 1) {
+                for (int i = actorOffsets[actor]; i < actorOffsets[actor + 1]; i++) {
+                    edgeActors[count] = actor;
+                    edgeMovies[count++] = actorEdges[i];
+                }
+            }
+            if (actor < actorExtra.length && actorExtra[actor] != null) {
+                for (int i = 0; i < actorExtraSize[actor]; i++) {
+                    edgeActors[count] = actor;
+                    edgeMovies[count++] = actorExtra[actor][i];
+                }
+            }
+        }
+        return count;
+    }
+
+
+    private void ensureOverlayCapacity() {
+        if (actorExtra.length < actors.size()) {
+            int capacity = Math.max(actors.size(), actorExtra.length * 2);
+            actorExtra = Arrays.copyOf(actorExtra, capacity);
+            actorExtraSize = Arrays.copyOf(actorExtraSize, capacity);
+        }
+        if (movieExtra.length < movies.size()) {
+            int capacity = Math.max(movies.size(), movieExtra.length * 2);
+            movieExtra = Arrays.copyOf(movieExtra, capacity);
+            movieExtraSize = Arrays.copyOf(movieExtraSize, capacity);
+        }
+    }
+
+
+    private static void appendExtra(int[][] extra, int[] sizes, int node, int neighbour) {
+        int[] list = extra[node];
+        if (list == null) {
+            list = new int[4];
+            extra[node] = list;
+        } else if (sizes[node] == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+            extra[node] = list;
+        }
+        list[sizes[node]++] = neighbour;
+    }
+
+
+    /**
+     * Dictionaries and CSR arrays of a whole graph, as written to and read from a snapshot.
+     * Tombstoned slots have a null id so indexes stay the same across a restore.
+     */
+    static final class State {
+        String[] actorIds;
+        String[] movieIds;
+        String[] actorNames;
+        String[] movieNames;
+        String[] movieGenres;
+        int[] actorOffsets;
+        int[] actorEdges;
+        int[] movieOffsets;
+        int[] movieEdges;
+    }
+
+
+    /**
+     * Structure derived from the graph and kept current with it. Callbacks run under the write lock.
+     */
+    interface Listener {
+
+        /**
+         * The graph finished loading, derived state should be rebuilt from scratch
+         */
+        void graphLoaded();
+
+        void actorAdded(int actor);
+
+        /**
+         * @param movie index of a movie whose name and genre were just set
+         */
+        void movieAdded(int movie);
+
+        void relationshipAdded(int actor, int movie);
+
+        /**
+         * @param actor index of the removed actor, its movies are still visible through {@link #moviesOf}
+         */
+        void actorRemoved(int actor);
+    }
+
+
+    /**
+     * Search scratch space of one search at a time, one frontier per search direction. Marks are compared against a stamp
+     * that changes on every search, so nothing has to be cleared between searches.
+     */
+    private static final class Traversal {
+        int stamp;
+        int meet;
+        final Frontier forward = new Frontier();
+        final Frontier backward = new Frontier();
+
+        void ensureCapacity(int actorCount, int movieCount) {
+            forward.ensureCapacity(actorCount, movieCount);
+            backward.ensureCapacity(actorCount, movieCount);
+        }
+
+        int nextStamp() {
+            if (++stamp == Integer.MAX_VALUE) {
+                forward.clearMarks();
+                backward.clearMarks();
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+
+
+    /**
+     * Visited marks, BFS tree and queue for one direction of a search
+     */
+    private static final class Frontier {
+        int[] actorMark = new int[0];
+        int[] movieMark = new int[0];
+        int[] parent = new int[0];
+        int[] depth = new int[0];
+        int[] queue = new int[0];
+        int head;
+        int tail;
+
+        void start(int origin, int stamp) {
+            head = 0;
+            tail = 0;
+            queue[tail++] = origin;
+            actorMark[origin] = stamp;
+            depth[origin] = 0;
+        }
+
+        int size() {
+            return tail - head;
+        }
+
+        void ensureCapacity(int actorCount, int movieCount) {
+            if (actorMark.length < actorCount) {
+                int capacity = Math.max(actorCount, actorMark.length + (actorMark.length >> 1));
+                actorMark = Arrays.copyOf(actorMark, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                depth = Arrays.copyOf(depth, capacity);
+                queue = Arrays.copyOf(queue, capacity);
+            }
+            if (movieMark.length < movieCount) {
+                int capacity = Math.max(movieCount, movieMark.length + (movieMark.length >> 1));
+                movieMark = Arrays.copyOf(movieMark, capacity);
+            }
+        }
+
+        void clearMarks() {
+            Arrays.fill(actorMark, 0);
+            Arrays.fill(movieMark, 0);
+        }
+    }
+}
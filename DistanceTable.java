@@ -0,0 +1,362 @@
+package ca.yorku.eecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Single-source shortest path table over the co-star graph: for every actor, the number of movies separating
+ * it from a fixed source actor and the actor/movie it was reached through.
+ * <p>
+ * Built with one BFS when the graph loads, then maintained incrementally: a new relationship can only shorten
+ * distances, so it is handled by relaxing outwards from the movie's cast; removing an actor only invalidates
+ * the actors whose predecessor chain ran through it, and only that subtree is recomputed.
+ * </p>
+ * Lookups must hold the graph's read lock, which {@link #distance} and {@link #path} take themselves.
+ * {@link #build} builds a table under the read lock only, for a source asked for while the server runs.
+ */
+class DistanceTable implements CoStarGraph.Listener {
+
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+    // builds under the read lock that a write overtakes before they are installed, then one under the write lock
+    private static final int BUILD_ATTEMPTS = 3;
+
+    private final CoStarGraph graph;
+    private final String sourceId;
+    private int source = -1;
+
+    private int[] distance = new int[0];
+    private int[] parentActor = new int[0];
+    private int[] parentMovie = new int[0];
+
+    // scratch space, only touched under the graph's write lock
+    private final IntList queue = new IntList();
+    private final IntList movieScratch = new IntList();
+    private final IntList castScratch = new IntList();
+    private int[] movieMark = new int[0];
+    private int stamp;
+
+
+    DistanceTable(CoStarGraph graph, String sourceId) {
+        this(graph, sourceId, true);
+    }
+
+
+    private DistanceTable(CoStarGraph graph, String sourceId, boolean register) {
+        this.graph = graph;
+        this.sourceId = sourceId;
+        if (register) {
+            graph.addListener(this);
+        }
+    }
+
+
+    /**
+     * Builds the table of a source with one BFS under the graph's read lock, so searches keep running
+     * meanwhile, and installs it as a listener afterwards. A build that a write got in ahead of is thrown away
+     * and redone; after {@link #BUILD_ATTEMPTS} of them the table is built under the write lock.
+     *
+     * @param graph    warm co-star graph
+     * @param sourceId source actor
+     * @return the table, kept current from then on
+     */
+    static DistanceTable build(CoStarGraph graph, String sourceId) {
+        DistanceTable table = new DistanceTable(graph, sourceId, false);
+        for (int attempt = 0; attempt < BUILD_ATTEMPTS; attempt++) {
+            long version;
+            graph.lock().readLock().lock();
+            try {
+                version = graph.version();
+                table.graphLoaded();
+            } finally {
+                graph.lock().readLock().unlock();
+            }
+            if (graph.addListenerAt(table, version)) {
+                return table;
+            }
+        }
+        graph.addListener(table);
+        return table;
+    }
+
+
+    String sourceId() {
+        return sourceId;
+    }
+
+
+    /**
+     * @param actorId actor to look up
+     * @return number of movies between the actor and the source, or -1 if unknown or unreachable
+     */
+    int distance(String actorId) {
+        graph.lock().readLock().lock();
+        try {
+            int actor = graph.actorIndex(actorId);
+            if (actor < 0 || actor >= distance.length || distance[actor] == UNREACHABLE) {
+                return -1;
+            }
+            return distance[actor];
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Looks up many actors under one acquisition of the graph's read lock
+     *
+     * @param actorIds actors to look up
+     * @return number of movies between each actor and the source, -1 where unknown or unreachable
+     */
+    int[] distances(List<String> actorIds) {
+        int[] distances = new int[actorIds.size()];
+        graph.lock().readLock().lock();
+        try {
+            for (int i = 0; i < distances.length; i++) {
+                int actor = graph.actorIndex(actorIds.get(i));
+                distances[i] = actor < 0 || actor >= distance.length || distance[actor] == UNREACHABLE
+                        ? -1 : distance[actor];
+            }
+            return distances;
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param actorId actor to look up
+     * @return actorIds from the actor to the source, both included, or null if unknown or unreachable
+     */
+    List<String> path(String actorId) {
+        graph.lock().readLock().lock();
+        try {
+            int actor = graph.actorIndex(actorId);
+            if (actor < 0 || actor >= distance.length || distance[actor] == UNREACHABLE) {
+                return null;
+            }
+            List<String> path = new ArrayList<>(distance[actor] + 1);
+            for (; actor != source; actor = parentActor[actor]) {
+                path.add(graph.actorIdAt(actor));
+            }
+            path.add(sourceId);
+            return path;
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return approximate heap footprint of the table in bytes
+     */
+    long footprintBytes() {
+        return 12L * distance.length;
+    }
+
+
+    @Override
+    public void graphLoaded() {
+        ensureCapacity(graph.actorSlots());
+        Arrays.fill(distance, UNREACHABLE);
+        source = graph.actorIndex(sourceId);
+        if (source < 0) {
+            return;
+        }
+        distance[source] = 0;
+        queue.clear();
+        queue.add(source);
+        relax();
+    }
+
+
+    @Override
+    public void actorAdded(int actor) {
+        ensureCapacity(actor + 1);
+        distance[actor] = UNREACHABLE;
+        if (sourceId.equals(graph.actorIdAt(actor))) {
+            source = actor;
+            distance[actor] = 0;
+        }
+    }
+
+
+    @Override
+    public void movieAdded(int movie) {
+        // a movie without cast changes no distance
+    }
+
+
+    @Override
+    public void relationshipAdded(int actor, int movie) {
+        ensureCapacity(graph.actorSlots());
+        graph.castOf(movie, castScratch);
+
+        // the closest member of the cast decides what the rest of the cast can be shortened to
+        int best = UNREACHABLE;
+        int bestActor = -1;
+        for (int i = 0; i < castScratch.size(); i++) {
+            int member = castScratch.get(i);
+            if (distance[member] < best) {
+                best = distance[member];
+                bestActor = member;
+            }
+        }
+        if (best == UNREACHABLE) {
+            return;
+        }
+
+        queue.clear();
+        for (int i = 0; i < castScratch.size(); i++) {
+            int member = castScratch.get(i);
+            if (distance[member] > best + 1) {
+                distance[member] = best + 1;
+                parentActor[member] = bestActor;
+                parentMovie[member] = movie;
+                queue.add(member);
+            }
+        }
+        relax();
+    }
+
+
+    @Override
+    public void actorRemoved(int removed) {
+        if (removed == source) {
+            Arrays.fill(distance, UNREACHABLE);
+            source = -1;
+            return;
+        }
+        if (removed >= distance.length || distance[removed] == UNREACHABLE) {
+            return;
+        }
+
+        // collect every actor whose shortest path ran through the removed actor
+        IntList subtree = new IntList();
+        subtree.add(removed);
+        for (int next = 0; next < subtree.size(); next++) {
+            int parent = subtree.get(next);
+            graph.moviesOf(parent, movieScratch);
+            for (int i = 0; i < movieScratch.size(); i++) {
+                graph.castOf(movieScratch.get(i), castScratch);
+                for (int j = 0; j < castScratch.size(); j++) {
+                    int child = castScratch.get(j);
+                    if (parentActor[child] == parent && distance[child] == distance[parent] + 1) {
+                        subtree.add(child);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < subtree.size(); i++) {
+            distance[subtree.get(i)] = UNREACHABLE;
+        }
+
+        // reattach the subtree through its best remaining neighbour, closest first
+        PriorityQueue<Long> pending = new PriorityQueue<>();
+        for (int i = 1; i < subtree.size(); i++) {
+            int actor = subtree.get(i);
+            graph.moviesOf(actor, movieScratch);
+            for (int m = 0; m < movieScratch.size(); m++) {
+                int movie = movieScratch.get(m);
+                graph.castOf(movie, castScratch);
+                for (int j = 0; j < castScratch.size(); j++) {
+                    int neighbour = castScratch.get(j);
+                    if (distance[neighbour] != UNREACHABLE && distance[neighbour] + 1 < distance[actor]) {
+                        distance[actor] = distance[neighbour] + 1;
+                        parentActor[actor] = neighbour;
+                        parentMovie[actor] = movie;
+                    }
+                }
+            }
+            if (distance[actor] != UNREACHABLE) {
+                pending.add(((long) distance[actor] << 32) | actor);
+            }
+        }
+
+        int mark = nextStamp();
+        while (!pending.isEmpty()) {
+            long entry = pending.poll();
+            int actor = (int) entry;
+            if ((int) (entry >>> 32) != distance[actor]) {
+                continue;
+            }
+            graph.moviesOf(actor, movieScratch);
+            for (int m = 0; m < movieScratch.size(); m++) {
+                int movie = movieScratch.get(m);
+                if (movieMark[movie] == mark) {
+                    continue;
+                }
+                movieMark[movie] = mark;
+                graph.castOf(movie, castScratch);
+                for (int j = 0; j < castScratch.size(); j++) {
+                    int neighbour = castScratch.get(j);
+                    if (distance[neighbour] > distance[actor] + 1) {
+                        distance[neighbour] = distance[actor] + 1;
+                        parentActor[neighbour] = actor;
+                        parentMovie[neighbour] = movie;
+                        pending.add(((long) distance[neighbour] << 32) | neighbour);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Breadth first relaxation from the actors in the queue, whose distances have just been lowered
+     */
+    private void relax() {
+        int mark = nextStamp();
+        for (int next = 0; next < queue.size(); next++) {
+            int actor = queue.get(next);
+            int reached = distance[actor] + 1;
+            graph.moviesOf(actor, movieScratch);
+            for (int m = 0; m < movieScratch.size(); m++) {
+                int movie = movieScratch.get(m);
+                // the queue is in distance order, so a cast already scanned was scanned from closer
+                if (movieMark[movie] == mark) {
+                    continue;
+                }
+                movieMark[movie] = mark;
+                graph.castOf(movie, castScratch);
+                for (int j = 0; j < castScratch.size(); j++) {
+                    int neighbour = castScratch.get(j);
+                    if (distance[neighbour] > reached) {
+                        distance[neighbour] = reached;
+                        parentActor[neighbour] = actor;
+                        parentMovie[neighbour] = movie;
+                        queue.add(neighbour);
+                    }
+                }
+            }
+        }
+        queue.clear();
+    }
+
+
+    private int nextStamp() {
+        if (movieMark.length < graph.movieSlots()) {
+            movieMark = Arrays.copyOf(movieMark, Math.max(graph.movieSlots(), movieMark.length * 2));
+        }
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(movieMark, 0);
+            stamp = 1;
+        }
+        return stamp;
+    }
+
+
+    private void ensureCapacity(int actorSlots) {
+        if (distance.length >= actorSlots) {
+            return;
+        }
+        int capacity = Math.max(actorSlots, distance.length + (distance.length >> 1));
+        int oldLength = distance.length;
+        distance = Arrays.copyOf(distance, capacity);
+        parentActor = Arrays.copyOf(parentActor, capacity);
+        parentMovie = Arrays.copyOf(parentMovie, capacity);
+        Arrays.fill(distance, oldLength, capacity, UNREACHABLE);
+    }
+}
@@ -0,0 +1,312 @@
+package ca.yorku.eecs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of the UTF-8 encoded getActor / getMovie response bodies, using W-TinyLFU admission.
+ * <p>
+ * New entries go to a small LRU window. An entry pushed out of the window only enters the main space, a
+ * segmented LRU of probation and protected entries, if it has been requested more often than the entry it
+ * would evict; request frequencies come from a count-min sketch that is halved periodically so old popularity
+ * fades. One-off lookups therefore cannot flush the popular actors and movies out of the cache.
+ * </p>
+ * <p>
+ * Keys are spread over independently locked stripes, each a W-TinyLFU cache of its share of the capacity, so
+ * concurrent lookups of different entities rarely wait for each other.
+ * </p>
+ * Entries are dropped by {@link #invalidate(String)} once a write has committed. A reader that queried the
+ * database before an invalidation cannot put its stale result back: {@link #put} is given the
+ * {@link #stamp(String)} taken before the query and ignores it if an invalidation in the key's stripe happened
+ * since. Invalidations elsewhere do not hold the fill back.
+ */
+class EntityCache {
+
+    // stripes are only split off while each keeps at least this many entries
+    private static final int MIN_STRIPE_SIZE = 64;
+    private static final int MAX_STRIPES = 16;
+
+    private final Stripe[] stripes;
+
+    // every invalidation, for reads that depend on more than one entry
+    private final AtomicLong invalidations = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * @param maxSize maximum number of entries, 0 disables the cache
+     */
+    EntityCache(int maxSize) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE)));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+
+    /**
+     * @return cache sized by cache.entities.maxSize
+     */
+    static EntityCache fromSettings() {
+        return new EntityCache(Math.max(0, Settings.getInt("cache.entities.maxSize", 10000)));
+    }
+
+
+    static String actorKey(String actorId) {
+        return "actor:" + actorId;
+    }
+
+
+    static String movieKey(String movieId) {
+        return "movie:" + movieId;
+    }
+
+
+    /**
+     * @param key entity key
+     * @return the cached response, or null on a miss
+     */
+    byte[] get(String key) {
+        byte[] value = stripe(key).get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+
+    /**
+     * @return stamp changed by every invalidation, e.g. to tell reads that depend on the whole graph apart
+     */
+    long stamp() {
+        return invalidations.get();
+    }
+
+
+    /**
+     * @param key entity key
+     * @return stamp to hand to {@link #put} for a value about to be read from the database, changed by every
+     * invalidation of a key in the same stripe
+     */
+    long stamp(String key) {
+        return stripe(key).invalidations;
+    }
+
+
+    /**
+     * @param key   entity key
+     * @param value serialized response
+     * @param stamp {@link #stamp(String)} taken before the value was read
+     */
+    void put(String key, byte[] value, long stamp) {
+        stripe(key).put(key, value, stamp);
+    }
+
+
+    /**
+     * Drops an entry whose response has changed
+     *
+     * @param key entity key
+     */
+    void invalidate(String key) {
+        invalidations.incrementAndGet();
+        stripe(key).invalidate(key);
+    }
+
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+
+    private Stripe stripe(String key) {
+        // top bits, the sketch picks its counters with the low bits of each byte
+        return stripes[(FrequencySketch.spread(key.hashCode()) >>> 28) & (stripes.length - 1)];
+    }
+
+
+    private static Map.Entry<String, byte[]> eldest(LinkedHashMap<String, byte[]> segment) {
+        Iterator<Map.Entry<String, byte[]>> entries = segment.entrySet().iterator();
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+
+    /**
+     * W-TinyLFU cache of one stripe's keys, guarded by its own monitor
+     */
+    private final class Stripe {
+        private final int windowCapacity;
+        private final int protectedCapacity;
+        private final int mainCapacity;
+
+        private final LinkedHashMap<String, byte[]> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, byte[]> protectedSpace = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+        // bumped under the lock by an invalidation, compared by put under the lock, read by stamp without it
+        private volatile long invalidations;
+
+        Stripe(int maxSize) {
+            this.windowCapacity = maxSize == 0 ? 0 : Math.max(1, maxSize / 100);
+            this.mainCapacity = maxSize - windowCapacity;
+            this.protectedCapacity = mainCapacity * 4 / 5;
+            this.sketch = new FrequencySketch(Math.max(1, maxSize));
+        }
+
+        synchronized byte[] get(String key) {
+            sketch.increment(key);
+            byte[] value = window.get(key);
+            if (value == null) {
+                value = protectedSpace.get(key);
+            }
+            if (value == null) {
+                value = probation.remove(key);
+                if (value != null) {
+                    // second hit in the main space, promote
+                    protectedSpace.put(key, value);
+                    if (protectedSpace.size() > protectedCapacity) {
+                        Map.Entry<String, byte[]> demoted = eldest(protectedSpace);
+                        protectedSpace.remove(demoted.getKey());
+                        probation.put(demoted.getKey(), demoted.getValue());
+                    }
+                }
+            }
+            return value;
+        }
+
+        synchronized void put(String key, byte[] value, long stamp) {
+            if (stamp != invalidations || windowCapacity == 0) {
+                return;
+            }
+            if (window.containsKey(key)) {
+                window.put(key, value);
+                return;
+            }
+            if (protectedSpace.containsKey(key)) {
+                protectedSpace.put(key, value);
+                return;
+            }
+            if (probation.containsKey(key)) {
+                probation.put(key, value);
+                return;
+            }
+            window.put(key, value);
+            if (window.size() > windowCapacity) {
+                Map.Entry<String, byte[]> candidate = eldest(window);
+                window.remove(candidate.getKey());
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        synchronized void invalidate(String key) {
+            invalidations++;
+            if (window.remove(key) == null && probation.remove(key) == null) {
+                protectedSpace.remove(key);
+            }
+        }
+
+        synchronized int size() {
+            return window.size() + probation.size() + protectedSpace.size();
+        }
+
+        /**
+         * Moves an entry leaving the window into the main space if it is used more than the main space's victim
+         */
+        private void admit(String key, byte[] value) {
+            if (probation.size() + protectedSpace.size() < mainCapacity) {
+                probation.put(key, value);
+                return;
+            }
+            LinkedHashMap<String, byte[]> victims = probation.isEmpty() ? protectedSpace : probation;
+            Map.Entry<String, byte[]> victim = eldest(victims);
+            if (victim != null && sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+                victims.remove(victim.getKey());
+                probation.put(key, value);
+            }
+            evictions.increment();
+        }
+    }
+
+
+    /**
+     * Count-min sketch of 4-bit counters, four rows packed into one long per slot. After ten increments per
+     * cache entry every counter is halved.
+     */
+    private static final class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxSize) {
+            int width = Integer.highestOneBit(Math.max(16, maxSize) * 2 - 1);
+            table = new long[width];
+            mask = width - 1;
+            sampleSize = 10 * Math.max(16, maxSize);
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int slot = index(hash, row);
+                int shift = row * 16 + (hash >>> (row * 8) & 3) * 4;
+                if (((table[slot] >>> shift) & 0xF) < 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                int slot = index(hash, row);
+                int shift = row * 16 + (hash >>> (row * 8) & 3) * 4;
+                frequency = Math.min(frequency, (int) ((table[slot] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + (long) row * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        static int spread(int hash) {
+            hash = (hash ^ (hash >>> 16)) * 0x45D9F3B;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
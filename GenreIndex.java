@@ -0,0 +1,144 @@
+package ca.yorku.eecs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Inverted index from genre to the movieIds carrying it, each posting list sorted by movieId, kept current
+ * with the co-star graph. Genres are split the same way as in {@link ActorLeaderboard}.
+ * <p>
+ * Pages are read from a movieId cursor. An AND query leapfrogs the posting lists with ceiling lookups, so its
+ * cost follows the number of jumps rather than the length of the longest list; an OR query merges the lists
+ * by taking the lowest next id.
+ * </p>
+ * Lookups take the graph's read lock; updates arrive through the listener callbacks under the write lock.
+ */
+class GenreIndex implements CoStarGraph.Listener {
+
+    private final CoStarGraph graph;
+    private final Map<String, TreeSet<String>> postings = new HashMap<>();
+
+
+    GenreIndex(CoStarGraph graph) {
+        this.graph = graph;
+        graph.addListener(this);
+    }
+
+
+    /**
+     * @param genres genres to match
+     * @param all    true for movies having every genre, false for movies having any of them
+     * @param after  movieId the page starts after, or null for the first page
+     * @param limit  maximum movies in the page
+     * @return up to limit + 1 movies as {movieId, name} pairs in movieId order; an extra entry means there is
+     * a further page
+     */
+    List<String[]> page(String[] genres, boolean all, String after, int limit) {
+        graph.lock().readLock().lock();
+        try {
+            List<TreeSet<String>> lists = new ArrayList<>(genres.length);
+            for (String genre : genres) {
+                TreeSet<String> list = postings.get(genre);
+                if (list != null) {
+                    lists.add(list);
+                } else if (all) {
+                    return new ArrayList<>();
+                }
+            }
+
+            List<String[]> page = new ArrayList<>();
+            String cursor = after;
+            while (page.size() <= limit && !lists.isEmpty()) {
+                cursor = all ? nextInAll(lists, cursor) : nextInAny(lists, cursor);
+                if (cursor == null) {
+                    break;
+                }
+                page.add(new String[]{cursor, graph.movieNameAt(graph.movieIndex(cursor))});
+            }
+            return page;
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void graphLoaded() {
+        postings.clear();
+        for (int movie = 0; movie < graph.movieSlots(); movie++) {
+            movieAdded(movie);
+        }
+    }
+
+
+    @Override
+    public void actorAdded(int actor) {
+        // postings only hold movies
+    }
+
+
+    @Override
+    public void movieAdded(int movie) {
+        String movieId = graph.movieIdAt(movie);
+        if (movieId == null) {
+            return;
+        }
+        for (String genre : ActorLeaderboard.split(graph.movieGenreAt(movie))) {
+            TreeSet<String> list = postings.get(genre);
+            if (list == null) {
+                list = new TreeSet<>();
+                postings.put(genre, list);
+            }
+            list.add(movieId);
+        }
+    }
+
+
+    @Override
+    public void relationshipAdded(int actor, int movie) {
+        // postings only hold movies
+    }
+
+
+    @Override
+    public void actorRemoved(int actor) {
+        // postings only hold movies
+    }
+
+
+    /**
+     * Leapfrog intersection: raise the candidate to the ceiling of each list in turn until all lists agree
+     */
+    private static String nextInAll(List<TreeSet<String>> lists, String after) {
+        String candidate = after == null ? lists.get(0).first() : lists.get(0).higher(after);
+        int agreed = 1;
+        for (int i = 1; candidate != null && agreed < lists.size(); i = (i + 1) % lists.size()) {
+            String ceiling = lists.get(i).ceiling(candidate);
+            if (ceiling == null) {
+                return null;
+            }
+            if (ceiling.equals(candidate)) {
+                agreed++;
+            } else {
+                candidate = ceiling;
+                agreed = 1;
+            }
+        }
+        return candidate;
+    }
+
+
+    private static String nextInAny(List<TreeSet<String>> lists, String after) {
+        String lowest = null;
+        for (TreeSet<String> list : lists) {
+            String next = after == null ? list.first() : list.higher(after);
+            if (next != null && (lowest == null || next.compareTo(lowest) < 0)) {
+                lowest = next;
+            }
+        }
+        return lowest;
+    }
+}
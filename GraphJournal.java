@@ -0,0 +1,243 @@
+package ca.yorku.eecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Append-only log of the changes made to the co-star graph since the last snapshot, replayed on top of the
+ * snapshot at startup. Files are named graph.journal.&lt;generation&gt;; {@link #rotate()} starts the next
+ * generation, and a snapshot records the first generation it does not contain. A record is an op byte followed
+ * by its strings, each length-prefixed UTF-8 as in the snapshot, -1 for null.
+ * <p>
+ * Records are written under the graph's write lock and flushed one by one. If a write fails the snapshot is
+ * deleted, so the next start rebuilds from Neo4j instead of replaying an incomplete journal, and nothing more
+ * is written until the next {@link #rotate()}, which comes with a snapshot of the whole graph.
+ * </p>
+ */
+class GraphJournal implements Closeable {
+
+    private static final String PREFIX = "graph.journal.";
+
+    private static final byte ACTOR_ADDED = 1;
+    private static final byte MOVIE_ADDED = 2;
+    private static final byte RELATIONSHIP_ADDED = 3;
+    private static final byte ACTOR_REMOVED = 4;
+    // longer strings are taken for a corrupt length rather than allocated
+    private static final int MAX_STRING_BYTES = 1 << 24;
+
+    private final Path directory;
+    private final Path snapshot;
+    private long generation;
+    private DataOutputStream out;
+    private long records;
+    private boolean failed;
+
+
+    /**
+     * @param directory  directory holding the snapshot and journals
+     * @param snapshot   snapshot file to delete if the journal cannot be written
+     * @param generation generation to start writing
+     */
+    GraphJournal(Path directory, Path snapshot, long generation) throws IOException {
+        this.directory = directory;
+        this.snapshot = snapshot;
+        this.generation = generation;
+        open();
+    }
+
+
+    void actorAdded(String actorId, String name) {
+        write(ACTOR_ADDED, actorId, name, null);
+    }
+
+    void movieAdded(String movieId, String name, String genre) {
+        write(MOVIE_ADDED, movieId, name, genre);
+    }
+
+    void relationshipAdded(String actorId, String movieId) {
+        write(RELATIONSHIP_ADDED, actorId, movieId, null);
+    }
+
+    void actorRemoved(String actorId) {
+        write(ACTOR_REMOVED, actorId, null, null);
+    }
+
+
+    /**
+     * @return records written to the current generation
+     */
+    long records() {
+        return records;
+    }
+
+
+    /**
+     * Closes the current generation and starts the next one, writing again after a failed write. Must not race
+     * with writes, and is only called while capturing a snapshot, which contains everything the failed
+     * generation lost.
+     *
+     * @return the new generation
+     */
+    long rotate() throws IOException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (!failed) {
+                throw e;
+            }
+        }
+        generation++;
+        open();
+        failed = false;
+        return generation;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+
+    /**
+     * Applies every journal from a generation onwards, in order. A record cut short by a crash ends the replay
+     * of its file.
+     *
+     * @param directory  directory holding the journals
+     * @param generation first generation not contained in the snapshot
+     * @param graph      graph restored from the snapshot
+     * @return the generation after the last one replayed
+     */
+    static long replay(Path directory, long generation, CoStarGraph graph) throws IOException {
+        long replayed = 0;
+        for (; Files.exists(journalFile(directory, generation)); generation++) {
+            try (InputStream file = Files.newInputStream(journalFile(directory, generation));
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+                while (true) {
+                    byte op;
+                    try {
+                        op = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    try {
+                        if (op == ACTOR_ADDED) {
+                            graph.addActor(readString(in), readString(in));
+                        } else if (op == MOVIE_ADDED) {
+                            graph.addMovie(readString(in), readString(in), readString(in));
+                        } else if (op == RELATIONSHIP_ADDED) {
+                            graph.addRelationship(readString(in), readString(in));
+                        } else if (op == ACTOR_REMOVED) {
+                            graph.removeActor(readString(in));
+                        } else {
+                            throw new IOException("Unknown record " + op + " in journal " + generation);
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    replayed++;
+                }
+            }
+        }
+        System.out.printf("Replayed %d journal records\n", replayed);
+        return generation;
+    }
+
+
+    /**
+     * Removes journals already contained in a snapshot
+     *
+     * @param directory  directory holding the journals
+     * @param generation first generation to keep, or Long.MAX_VALUE to remove all
+     */
+    static void deleteBefore(Path directory, long generation) throws IOException {
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path journal : journals) {
+                String suffix = journal.getFileName().toString().substring(PREFIX.length());
+                try {
+                    if (Long.parseLong(suffix) < generation) {
+                        Files.deleteIfExists(journal);
+                    }
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+    }
+
+
+    private void open() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile(directory, generation))));
+        records = 0;
+    }
+
+
+    /**
+     * Writes a record: the op, the id, then a relationship's movieId or the names and genre
+     */
+    private void write(byte op, String id, String second, String third) {
+        if (failed) {
+            return;
+        }
+        try {
+            out.writeByte(op);
+            writeString(id);
+            if (op == RELATIONSHIP_ADDED || op == ACTOR_ADDED) {
+                writeString(second);
+            } else if (op == MOVIE_ADDED) {
+                writeString(second);
+                writeString(third);
+            }
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            failed = true;
+            System.out.println("Graph journal write failed, discarding snapshot: " + e.getMessage());
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException ignored) {
+                // next start finds a snapshot without its journal, nothing more can be done here
+            }
+        }
+    }
+
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Journal string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static Path journalFile(Path directory, long generation) {
+        return directory.resolve(PREFIX + generation);
+    }
+}
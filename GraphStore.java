@@ -0,0 +1,454 @@
+package ca.yorku.eecs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.v1.Session;
+
+/**
+ * Keeps the co-star graph on disk so a restart does not scan the whole database. The graph is restored from
+ * a binary snapshot of its dictionaries and CSR arrays, then the journal of changes made since the snapshot is
+ * replayed on top. Without a usable snapshot the graph is loaded from Neo4j as before.
+ * <p>
+ * Snapshot layout, big-endian: magic, version, journal generation, actor slots, movie slots, relationship
+ * count, actor ids, movie ids, actor names, movie names, movie genres (length-prefixed UTF-8, -1 for null),
+ * actor offsets, actor edges, movie offsets, movie edges, magic. The file is written beside the old one and
+ * moved over it atomically.
+ * </p>
+ * Writes made to Neo4j behind the server's back (the offline importer, manual Cypher) are not in the journal;
+ * the importer removes the snapshot so the next start reloads from the database. Nor are writes that
+ * committed to Neo4j but never reached the graph because the server died in between. To catch both, a restored
+ * graph is checked against the database before any read is answered from it and reloaded from Neo4j if it
+ * differs; every graph is checked again each graph.verifyIntervalSeconds, see {@link CoStarGraph#verify}.
+ */
+class GraphStore implements Closeable {
+
+    private static final int MAGIC = 0x53444B42; // "SDKB"
+    // also the version of the journal format, journals are only replayed on a snapshot of the same version
+    private static final int VERSION = 3;
+    private static final String SNAPSHOT = "graph.snapshot";
+
+    // mapped a window at a time, a single MappedByteBuffer cannot go past 2GB
+    private static final long WINDOW_BYTES = 1L << 30;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final Path snapshot;
+    private final boolean enabled;
+    private final long intervalSeconds;
+    private final long verifyIntervalSeconds;
+
+    private CoStarGraph graph;
+    private GraphJournal journal;
+    private ScheduledExecutorService scheduler;
+
+
+    /**
+     * @param directory       directory holding the snapshot and journals, relative to the working directory
+     * @param enabled         false to always load from Neo4j and keep nothing on disk
+     * @param intervalSeconds seconds between snapshots while the journal grows
+     * @param verifyIntervalSeconds seconds between checks of the graph against the database, 0 for none
+     */
+    GraphStore(Path directory, boolean enabled, long intervalSeconds, long verifyIntervalSeconds) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.snapshot = directory.resolve(SNAPSHOT);
+        this.enabled = enabled;
+        this.intervalSeconds = intervalSeconds;
+        this.verifyIntervalSeconds = verifyIntervalSeconds;
+    }
+
+
+    /**
+     * @return store configured by snapshot.dir, snapshot.enabled, snapshot.intervalSeconds and
+     * graph.verifyIntervalSeconds
+     */
+    static GraphStore fromSettings() {
+        return new GraphStore(directory(),
+                Settings.getBoolean("snapshot.enabled", true),
+                Settings.getLong("snapshot.intervalSeconds", 600),
+                Settings.getLong("graph.verifyIntervalSeconds", 60));
+    }
+
+
+    /**
+     * Removes the snapshot and journals of the configured directory, for tools that write to Neo4j directly
+     */
+    static void invalidate() throws IOException {
+        Path directory = directory();
+        if (Files.isDirectory(directory)) {
+            Files.deleteIfExists(directory.resolve(SNAPSHOT));
+            GraphJournal.deleteBefore(directory, Long.MAX_VALUE);
+        }
+    }
+
+
+    /**
+     * Restores the graph from disk, or loads it from Neo4j and schedules the first snapshot, then schedules the
+     * checks against the database
+     *
+     * @return the co-star graph, cold if neither source was available
+     */
+    CoStarGraph open() throws IOException {
+        if (enabled) {
+            System.out.println("Graph data directory: " + directory);
+        }
+        CoStarGraph opened = load();
+        if (opened.isWarm()) {
+            if (verifyIntervalSeconds > 0) {
+                scheduler().scheduleWithFixedDelay(this::verify, verifyIntervalSeconds, verifyIntervalSeconds,
+                        TimeUnit.SECONDS);
+            }
+        }
+        return opened;
+    }
+
+
+    /**
+     * @return graph restored or loaded, null before {@link #open()}
+     */
+    CoStarGraph graph() {
+        return graph;
+    }
+
+
+    /**
+     * Checks the graph against the database, see {@link CoStarGraph#verify}
+     */
+    private void verify() {
+        if (differsFromDatabase()) {
+            System.out.println("Co-star graph differs from Neo4j, reads go to the database");
+        }
+    }
+
+
+    /**
+     * @return true if the database answered and its contents differ from the graph's; false if they agree or
+     * the database could not be asked, which leaves the graph out of sync until a later check
+     */
+    private boolean differsFromDatabase() {
+        try (Session session = Utils.getSession()) {
+            return !graph.verify(session);
+        } catch (Exception e) {
+            System.out.println("Co-star graph check failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "graph-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+
+    private CoStarGraph load() throws IOException {
+        if (!enabled) {
+            return graph = CoStarGraph.loadFromNeo4j();
+        }
+        Files.createDirectories(directory);
+
+        long generation = 0;
+        if (Files.exists(snapshot)) {
+            long start = System.nanoTime();
+            try {
+                generation = read();
+                generation = GraphJournal.replay(directory, generation, graph);
+                System.out.printf("Co-star graph restored from %s in %d ms\n",
+                        snapshot, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Snapshot not usable, loading from Neo4j: " + e.getMessage());
+                graph = null;
+            }
+            // a write committed just before a crash may be missing from the journal
+            if (graph != null && differsFromDatabase()) {
+                System.out.println("Snapshot and journal are behind Neo4j, loading from Neo4j");
+                graph = null;
+            }
+        }
+        if (graph == null) {
+            Files.deleteIfExists(snapshot);
+            GraphJournal.deleteBefore(directory, Long.MAX_VALUE);
+            generation = 0;
+            graph = CoStarGraph.loadFromNeo4j();
+            if (!graph.isWarm()) {
+                return graph;
+            }
+        }
+
+        journal = new GraphJournal(directory, snapshot, generation);
+        graph.setJournal(journal);
+
+        scheduler().scheduleWithFixedDelay(() -> {
+            try {
+                if (journal.records() > 0 || !Files.exists(snapshot)) {
+                    save();
+                }
+            } catch (Exception e) {
+                System.out.println("Snapshot failed: " + e.getMessage());
+            }
+        }, Files.exists(snapshot) ? intervalSeconds : 0, intervalSeconds, TimeUnit.SECONDS);
+        return graph;
+    }
+
+
+    /**
+     * Writes a snapshot of the current graph. The journal is rotated under the read lock, so every change
+     * lands either in the snapshot or in a journal kept after it.
+     */
+    synchronized void save() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        CoStarGraph.State state;
+        long generation;
+        graph.lock().readLock().lock();
+        try {
+            state = graph.capture();
+            generation = journal.rotate();
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+
+        Path partial = directory.resolve(SNAPSHOT + ".tmp");
+        write(partial, state, generation);
+        Files.move(partial, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        GraphJournal.deleteBefore(directory, generation);
+        System.out.printf("Snapshot of %d relationships written in %d ms\n",
+                state.actorEdges.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+
+    /**
+     * Stops the periodic snapshots and writes a last one, so the next start replays nothing
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (journal != null) {
+            save();
+            graph.setJournal(null);
+            journal.close();
+            journal = null;
+        }
+    }
+
+
+    /**
+     * @return snapshot.dir resolved against the working directory at the time of the call
+     */
+    private static Path directory() {
+        return Paths.get(Settings.get("snapshot.dir", "graph-data")).toAbsolutePath().normalize();
+    }
+
+
+    /**
+     * @param file       file to write, replaced if it exists
+     * @param state      graph to write, captured under the read lock
+     * @param generation first journal generation not contained in the snapshot
+     */
+    static void write(Path file, CoStarGraph.State state, long generation) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(generation);
+            buffer.putInt(state.actorIds.length).putInt(state.movieIds.length).putInt(state.actorEdges.length);
+            writeStrings(channel, buffer, state.actorIds);
+            writeStrings(channel, buffer, state.movieIds);
+            writeStrings(channel, buffer, state.actorNames);
+            writeStrings(channel, buffer, state.movieNames);
+            writeStrings(channel, buffer, state.movieGenres);
+            writeInts(channel, buffer, state.actorOffsets);
+            writeInts(channel, buffer, state.actorEdges);
+            writeInts(channel, buffer, state.movieOffsets);
+            writeInts(channel, buffer, state.movieEdges);
+            ensure(channel, buffer, 4);
+            buffer.putInt(MAGIC);
+            drain(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+
+    private static void writeStrings(FileChannel channel, ByteBuffer buffer, String[] values) throws IOException {
+        for (String value : values) {
+            if (value == null) {
+                ensure(channel, buffer, 4);
+                buffer.putInt(-1);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(channel, buffer, 4 + bytes.length);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int value : values) {
+            ensure(channel, buffer, 4);
+            buffer.putInt(value);
+        }
+    }
+
+
+    private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Restores {@link #graph} from the snapshot
+     *
+     * @return first journal generation not contained in the snapshot
+     */
+    long read() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            Reader in = new Reader(channel);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a graph snapshot");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            long generation = in.getLong();
+            int actorSlots = in.getInt();
+            int movieSlots = in.getInt();
+            int edgeCount = in.getInt();
+
+            CoStarGraph.State state = new CoStarGraph.State();
+            state.actorIds = in.getStrings(actorSlots);
+            state.movieIds = in.getStrings(movieSlots);
+            state.actorNames = in.getStrings(actorSlots);
+            state.movieNames = in.getStrings(movieSlots);
+            state.movieGenres = in.getStrings(movieSlots);
+            state.actorOffsets = in.getInts(actorSlots + 1);
+            state.actorEdges = in.getInts(edgeCount);
+            state.movieOffsets = in.getInts(movieSlots + 1);
+            state.movieEdges = in.getInts(edgeCount);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Snapshot is truncated");
+            }
+            graph = CoStarGraph.restore(state);
+            return generation;
+        }
+    }
+
+
+    /**
+     * Sequential reader over a memory-mapped file, remapping the next window as it goes
+     */
+    private static final class Reader {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        int[] getInts(int count) throws IOException {
+            ensureCount(count);
+            int[] values = new int[count];
+            int done = 0;
+            while (done < count) {
+                ensure(4);
+                int n = Math.min(count - done, window.remaining() / 4);
+                window.asIntBuffer().get(values, done, n);
+                window.position(window.position() + n * 4);
+                done += n;
+            }
+            return values;
+        }
+
+        String[] getStrings(int count) throws IOException {
+            ensureCount(count);
+            String[] values = new String[count];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int length = getInt();
+                if (length < 0) {
+                    continue;
+                }
+                ensure(length);
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                window.get(bytes, 0, length);
+                values[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+
+        /**
+         * Every value takes at least four bytes, so a count the rest of the file cannot hold is corrupt and
+         * must not size an array
+         */
+        private void ensureCount(int count) throws IOException {
+            if (count < 0 || count > (size - windowStart - window.position()) / 4) {
+                throw new IOException("Snapshot is truncated");
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (position + bytes > size) {
+                throw new IOException("Snapshot is truncated");
+            }
+            map(position);
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, size - position));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ca.yorku.eecs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns string ids (actorId / movieId) to dense int indexes so the graph can be held in plain int arrays.
+ * Indexes are handed out in insertion order and never reused; a removed id keeps its slot as a tombstone
+ * so stale adjacency entries pointing at it can be recognised and skipped.
+ */
+class IdDictionary {
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private String[] ids;
+    private int size;
+
+    IdDictionary(int expectedSize) {
+        ids = new String[Math.max(16, expectedSize)];
+    }
+
+
+    /**
+     * @param id string id
+     * @return dense index of the id, or -1 if the id is not present
+     */
+    int indexOf(String id) {
+        Integer index = indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
+
+    /**
+     * @param id string id
+     * @return existing index of the id, or a newly assigned one
+     */
+    int intern(String id) {
+        Integer index = indexes.get(id);
+        if (index != null) {
+            return index;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = id;
+        indexes.put(id, size);
+        return size++;
+    }
+
+
+    /**
+     * Removes the id so a later {@link #intern(String)} hands out a fresh index. The old slot stays a tombstone.
+     *
+     * @param id string id
+     * @return the index the id had, or -1 if it was not present
+     */
+    int remove(String id) {
+        Integer index = indexes.remove(id);
+        if (index == null) {
+            return -1;
+        }
+        ids[index] = null;
+        return index;
+    }
+
+
+    /**
+     * Appends the next slot when restoring a dictionary from a snapshot
+     *
+     * @param id id of the slot, or null to restore a tombstone
+     */
+    void append(String id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = id;
+        if (id != null) {
+            indexes.put(id, size);
+        }
+        size++;
+    }
+
+
+    /**
+     * @return copy of every slot, tombstones as null
+     */
+    String[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+
+    /**
+     * @param index dense index
+     * @return the id stored at the index, or null for a tombstone
+     */
+    String idAt(int index) {
+        return ids[index];
+    }
+
+
+    boolean isLive(int index) {
+        return ids[index] != null;
+    }
+
+
+    /**
+     * @return number of slots handed out, including tombstones
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * @return number of ids currently present
+     */
+    int liveCount() {
+        return indexes.size();
+    }
+}
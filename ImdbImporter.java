@@ -0,0 +1,586 @@
+package ca.yorku.eecs;
+
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Values;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Offline import of the IMDb dumps (name.basics.tsv, title.basics.tsv, title.principals.tsv, uncompressed)
+ * into Neo4j as Actor, Movie and ACTED_IN data.
+ * <p>
+ * Each file is memory-mapped in chunks that are scanned in parallel, one line at a time, straight from the
+ * mapped bytes: ids are parsed to numbers in place and Strings are only built for the names and genres that
+ * are written. Only actor/actress credits on titles of the configured types are kept.
+ * </p>
+ * Usage: java ca.yorku.eecs.ImdbImporter &lt;directory with the dumps&gt;
+ * <br>
+ * Settings: import.threads, import.batchSize, import.titleTypes (comma separated, default movie),
+ * snapshot.dir, whose graph snapshot is removed before writing, and the schema.* settings of
+ * {@link SchemaMigration}, which runs first so every MERGE below is an index seek.
+ */
+public class ImdbImporter {
+
+    private static final long CHUNK_BYTES = 256L << 20;
+    // mapped past the end of a chunk so the chunk's last line can be finished
+    private static final long MAX_LINE_BYTES = 1L << 20;
+    private static final long PROGRESS_STEP_BYTES = 4L << 20;
+
+    private static final byte[] ACTOR = "actor".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACTRESS = "actress".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String MOVIE_BATCH = "UNWIND $rows AS row " +
+            "MERGE (m:Movie {movieId: row.movieId}) ON CREATE SET m.name = row.name, m.genre = row.genre";
+    private static final String ACTOR_BATCH = "UNWIND $rows AS row " +
+            "MERGE (a:Actor {actorId: row.actorId}) ON CREATE SET a.name = row.name";
+    private static final String RELATIONSHIP_BATCH = "UNWIND $rows AS row " +
+            "MATCH (a:Actor {actorId: row.actorId}) " +
+            "MATCH (m:Movie {movieId: row.movieId}) " +
+            "MERGE (a)-[:ACTED_IN]->(m)";
+
+    private final int threads;
+    private final int batchSize;
+    private final byte[][] titleTypes;
+    private final long chunkBytes;
+
+    private final AtomicLong bytesScanned = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private volatile String phase = "starting";
+
+
+    ImdbImporter(int threads, int batchSize, String titleTypes) {
+        this(threads, batchSize, titleTypes, CHUNK_BYTES);
+    }
+
+
+    /**
+     * @param chunkBytes bytes of a file scanned as one piece of work
+     */
+    ImdbImporter(int threads, int batchSize, String titleTypes, long chunkBytes) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.chunkBytes = chunkBytes;
+        String[] types = titleTypes.split(",");
+        this.titleTypes = new byte[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            this.titleTypes[i] = types[i].trim().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java ca.yorku.eecs.ImdbImporter <directory with the IMDb .tsv dumps>");
+            System.exit(1);
+        }
+        ImdbImporter importer = new ImdbImporter(
+                Settings.getInt("import.threads", Runtime.getRuntime().availableProcessors()),
+                Settings.getInt("import.batchSize", 5000),
+                Settings.get("import.titleTypes", "movie"));
+        try {
+            importer.run(Paths.get(args[0]));
+        } finally {
+            Utils.close();
+        }
+    }
+
+
+    void run(Path directory) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "import-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> report(start), 5, 5, TimeUnit.SECONDS);
+
+        try {
+            phase = "checking schema";
+            if (!SchemaMigration.ensure() && Settings.getBoolean("schema.strict", false)) {
+                throw new IllegalStateException("Refusing to import without the required schema (schema.strict=true)");
+            }
+
+            Path titles = directory.resolve("title.basics.tsv");
+            Path principals = directory.resolve("title.principals.tsv");
+            Path names = directory.resolve("name.basics.tsv");
+
+            Credits credits = selectCredits(titles, principals);
+            System.out.printf("%d credits, %d movies, %d actors selected\n",
+                    credits.size, credits.titles.cardinality(), credits.names.cardinality());
+
+            // 3. nodes first, so every relationship batch finds both ends; the server's snapshot goes stale
+            GraphStore.invalidate();
+            phase = "writing movies";
+            scan(titles, () -> new MovieWriter(credits.titles));
+            phase = "writing actors";
+            scan(names, () -> new ActorWriter(credits.names));
+            phase = "writing relationships";
+            writeCredits(credits);
+        } finally {
+            progress.shutdownNow();
+        }
+        report(start);
+        System.out.println("Import finished");
+    }
+
+
+    /**
+     * @param titles     title.basics.tsv
+     * @param principals title.principals.tsv
+     * @return actor credits on titles of the wanted types, and the titles and names they use
+     */
+    Credits selectCredits(Path titles, Path principals) throws IOException, InterruptedException {
+        // 1. titles of the wanted types
+        phase = "selecting titles";
+        BitSet wantedTitles = new BitSet();
+        scan(titles, () -> new TitleTypeFilter(wantedTitles));
+
+        // 2. actor credits on those titles
+        phase = "selecting credits";
+        Credits credits = new Credits();
+        scan(principals, () -> new CreditFilter(wantedTitles, credits));
+        return credits;
+    }
+
+
+    private void report(long start) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        System.out.printf("[%s] %.0f s, scanned %d MB (%.1f MB/s), written %d rows (%.0f rows/s)\n",
+                phase, seconds, bytesScanned.get() >> 20, (bytesScanned.get() >> 20) / seconds,
+                rowsWritten.get(), rowsWritten.get() / seconds);
+    }
+
+
+    /**
+     * Scans a file chunk by chunk on the worker threads. Each chunk gets its own handler.
+     */
+    private void scan(Path file, Supplier<LineHandler> handlers) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> chunks = new ArrayList<>();
+                for (long chunkStart = 0; chunkStart < size; chunkStart += chunkBytes) {
+                    long from = chunkStart;
+                    long to = Math.min(size, chunkStart + chunkBytes);
+                    chunks.add(workers.submit(() -> {
+                        scanChunk(channel, size, from, to, handlers.get());
+                        return null;
+                    }));
+                }
+                for (Future<?> chunk : chunks) {
+                    chunk.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Import of " + file + " failed", e.getCause());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Feeds the handler every line starting inside [from, to). The header line of the file is skipped.
+     */
+    private void scanChunk(FileChannel channel, long size, long from, long to, LineHandler handler) throws IOException {
+        // map one byte early to see whether the chunk starts on a line boundary, and past the end to finish the last line
+        long mapStart = Math.max(0, from - 1);
+        long mapEnd = Math.min(size, to + MAX_LINE_BYTES);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        int limit = buffer.limit();
+        int chunkEnd = (int) (to - mapStart);
+
+        // the first chunk skips the header line, the others resume after the first newline at or after from - 1
+        int position = 0;
+        while (position < limit && buffer.get(position) != '\n') {
+            position++;
+        }
+        position++;
+
+        long unreported = 0;
+        TsvLine line = new TsvLine(buffer);
+        while (position < chunkEnd && position < limit) {
+            int end = position;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            line.reset(position, end);
+            handler.line(line);
+            unreported += end + 1 - position;
+            if (unreported >= PROGRESS_STEP_BYTES) {
+                bytesScanned.addAndGet(unreported);
+                unreported = 0;
+            }
+            position = end + 1;
+        }
+        bytesScanned.addAndGet(unreported);
+        handler.finish();
+    }
+
+
+    private void writeCredits(Credits credits) throws InterruptedException, IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> slices = new ArrayList<>();
+            int sliceSize = Math.max(batchSize, (credits.size + threads - 1) / threads);
+            for (int sliceStart = 0; sliceStart < credits.size; sliceStart += sliceSize) {
+                int from = sliceStart;
+                int to = (int) Math.min(credits.size, (long) sliceStart + sliceSize);
+                slices.add(workers.submit(() -> {
+                    try (BatchWriter writer = new BatchWriter(RELATIONSHIP_BATCH)) {
+                        for (int i = from; i < to; i++) {
+                            long credit = credits.pairs[i];
+                            writer.add("actorId", formatId("nm", (int) credit),
+                                    "movieId", formatId("tt", (int) (credit >>> 32)));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Writing relationships failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * IMDb ids are a two letter prefix and a number zero padded to at least 7 digits
+     */
+    static String formatId(String prefix, int number) {
+        String digits = Integer.toString(number);
+        StringBuilder id = new StringBuilder(prefix.length() + Math.max(7, digits.length()));
+        id.append(prefix);
+        for (int i = digits.length(); i < 7; i++) {
+            id.append('0');
+        }
+        return id.append(digits).toString();
+    }
+
+
+    private boolean wantedType(TsvLine line) {
+        for (byte[] type : titleTypes) {
+            if (line.fieldEquals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private interface LineHandler {
+        void line(TsvLine line);
+
+        void finish();
+    }
+
+
+    /**
+     * title.basics: tconst, titleType, ...
+     */
+    private final class TitleTypeFilter implements LineHandler {
+        private final BitSet wanted;
+        private final BitSet local = new BitSet();
+
+        TitleTypeFilter(BitSet wanted) {
+            this.wanted = wanted;
+        }
+
+        @Override
+        public void line(TsvLine line) {
+            int title = line.nextId();
+            if (title >= 0 && wantedType(line)) {
+                local.set(title);
+            }
+        }
+
+        @Override
+        public void finish() {
+            synchronized (wanted) {
+                wanted.or(local);
+            }
+        }
+    }
+
+
+    /**
+     * title.principals: tconst, ordering, nconst, category, ...
+     */
+    private static final class CreditFilter implements LineHandler {
+        private final BitSet wantedTitles;
+        private final Credits shared;
+        private final Credits local = new Credits();
+
+        CreditFilter(BitSet wantedTitles, Credits shared) {
+            this.wantedTitles = wantedTitles;
+            this.shared = shared;
+        }
+
+        @Override
+        public void line(TsvLine line) {
+            int title = line.nextId();
+            if (title < 0 || !wantedTitles.get(title)) {
+                return;
+            }
+            line.next();
+            int name = line.nextId();
+            if (name >= 0 && (line.fieldEquals(ACTOR) || line.fieldEquals(ACTRESS))) {
+                local.add(title, name);
+            }
+        }
+
+        @Override
+        public void finish() {
+            shared.addAll(local);
+        }
+    }
+
+
+    /**
+     * title.basics: tconst, titleType, primaryTitle, originalTitle, isAdult, startYear, endYear, runtimeMinutes, genres
+     */
+    private final class MovieWriter implements LineHandler {
+        private final BitSet titles;
+        private final BatchWriter writer = new BatchWriter(MOVIE_BATCH);
+
+        MovieWriter(BitSet titles) {
+            this.titles = titles;
+        }
+
+        @Override
+        public void line(TsvLine line) {
+            int title = line.nextId();
+            if (title < 0 || !titles.get(title)) {
+                return;
+            }
+            line.next();
+            String name = line.string();
+            for (int i = 0; i < 6; i++) {
+                line.next();
+            }
+            // \N marks a missing value in the dumps
+            String genre = line.fieldEquals(TsvLine.MISSING) ? "" : line.string();
+            writer.add("movieId", formatId("tt", title), "name", name, "genre", genre);
+        }
+
+        @Override
+        public void finish() {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * name.basics: nconst, primaryName, ...
+     */
+    private final class ActorWriter implements LineHandler {
+        private final BitSet names;
+        private final BatchWriter writer = new BatchWriter(ACTOR_BATCH);
+
+        ActorWriter(BitSet names) {
+            this.names = names;
+        }
+
+        @Override
+        public void line(TsvLine line) {
+            int name = line.nextId();
+            if (name < 0 || !names.get(name)) {
+                return;
+            }
+            writer.add("actorId", formatId("nm", name), "name", line.string());
+        }
+
+        @Override
+        public void finish() {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * Collects rows and writes them with one UNWIND statement per batch, on its own session
+     */
+    private final class BatchWriter implements AutoCloseable {
+        private final String statement;
+        private List<Map<String, Object>> rows = new ArrayList<>();
+        private Session session;
+
+        BatchWriter(String statement) {
+            this.statement = statement;
+        }
+
+        void add(String... keyValues) {
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < keyValues.length; i += 2) {
+                row.put(keyValues[i], keyValues[i + 1]);
+            }
+            rows.add(row);
+            if (rows.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (rows.isEmpty()) {
+                return;
+            }
+            if (session == null) {
+                session = Utils.getSession();
+            }
+            List<Map<String, Object>> batch = rows;
+            session.writeTransaction(tx -> tx.run(statement, Values.parameters("rows", batch)).consume());
+            rowsWritten.addAndGet(batch.size());
+            rows = new ArrayList<>();
+        }
+
+        @Override
+        public void close() {
+            try {
+                flush();
+            } finally {
+                if (session != null) {
+                    session.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * (title, name) credit pairs packed into longs, title in the high half
+     */
+    static final class Credits {
+        long[] pairs = new long[1024];
+        int size;
+        final BitSet titles = new BitSet();
+        final BitSet names = new BitSet();
+
+        void add(int title, int name) {
+            if (size == pairs.length) {
+                pairs = java.util.Arrays.copyOf(pairs, size * 2);
+            }
+            pairs[size++] = ((long) title << 32) | (name & 0xffffffffL);
+            titles.set(title);
+            names.set(name);
+        }
+
+        synchronized void addAll(Credits other) {
+            if (size + other.size > pairs.length) {
+                pairs = java.util.Arrays.copyOf(pairs, Math.max(size + other.size, pairs.length * 2));
+            }
+            System.arraycopy(other.pairs, 0, pairs, size, other.size);
+            size += other.size;
+            titles.or(other.titles);
+            names.or(other.names);
+        }
+    }
+
+
+    /**
+     * Cursor over the tab separated fields of one line of a mapped file, reads bytes in place
+     */
+    private static final class TsvLine {
+        static final byte[] MISSING = {'\\', 'N'};
+
+        private final MappedByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+        private int lineEnd;
+        private int fieldStart;
+        private int fieldEnd;
+
+        TsvLine(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void reset(int start, int end) {
+            lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+            fieldStart = start;
+            fieldEnd = findTab(start);
+        }
+
+        /**
+         * Moves to the next field
+         */
+        void next() {
+            fieldStart = Math.min(fieldEnd + 1, lineEnd);
+            fieldEnd = findTab(fieldStart);
+        }
+
+        /**
+         * Parses the current field as an IMDb id (two letter prefix, then digits) and moves to the next field
+         *
+         * @return the numeric part, or -1 if the field is not an id
+         */
+        int nextId() {
+            int value = -1;
+            if (fieldEnd - fieldStart > 2) {
+                value = 0;
+                for (int i = fieldStart + 2; i < fieldEnd; i++) {
+                    int digit = buffer.get(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        value = -1;
+                        break;
+                    }
+                    value = value * 10 + digit;
+                }
+            }
+            next();
+            return value;
+        }
+
+        boolean fieldEquals(byte[] expected) {
+            if (fieldEnd - fieldStart != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (buffer.get(fieldStart + i) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String string() {
+            int length = fieldEnd - fieldStart;
+            if (length > scratch.length) {
+                scratch = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(fieldStart + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int findTab(int from) {
+            int i = from;
+            while (i < lineEnd && buffer.get(i) != '\t') {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ca.yorku.eecs;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array, reused as scratch space to avoid boxing in graph code
+ */
+class IntList {
+
+    int[] items;
+    int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        items = new int[Math.max(4, capacity)];
+    }
+
+
+    void add(int value) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = value;
+    }
+
+
+    int get(int index) {
+        return items[index];
+    }
+
+
+    int size() {
+        return size;
+    }
+
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,357 @@
+package ca.yorku.eecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.neo4j.driver.v1.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streaming JSON encoder writing UTF-8 straight into a pooled byte buffer, so responses are written without
+ * building maps, lists and intermediate strings first.
+ * <p>
+ * Given an exchange, the buffer is sent as the response: with a Content-Length if the whole body fits in it,
+ * otherwise the headers go out chunked when it first fills and the buffer is flushed each time after that.
+ * Without an exchange the buffer grows instead, and {@link #toByteArray()} returns the document. An
+ * {@link #ndjson} writer writes one document per line, each ended by {@link #newline()}.
+ * </p>
+ * Commas and nesting are tracked by the writer. A response is complete once {@link #finish()} is called;
+ * {@link #close()} returns the buffer to the pool and, if the response was never finished, abandons it, so a
+ * handler that fails halfway can still answer with an error as long as nothing was flushed yet.
+ */
+final class JsonWriter implements AutoCloseable {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    // buffers of finished responses, shared by every request thread
+    private static final ArrayBlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(256);
+
+    private final HttpExchange exchange;
+    private final int statusCode;
+    private final String contentType;
+    private OutputStream body;
+    private byte[] buffer;
+    private int position;
+
+    // bit d is set once the container at depth d has a member, so the next one needs a comma
+    private long hasMember;
+    private int depth;
+    private boolean afterName;
+    private boolean finished;
+
+
+    private JsonWriter(HttpExchange exchange, int statusCode, String contentType) {
+        this.exchange = exchange;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        byte[] pooled = pool.poll();
+        this.buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+    }
+
+
+    /**
+     * @return writer sending the document as the exchange's JSON response with the given status
+     */
+    static JsonWriter response(HttpExchange exchange, int statusCode) {
+        return new JsonWriter(exchange, statusCode, "application/json");
+    }
+
+
+    /**
+     * @return writer sending a 200 response of newline delimited documents
+     */
+    static JsonWriter ndjson(HttpExchange exchange) {
+        return new JsonWriter(exchange, 200, "application/x-ndjson");
+    }
+
+
+    /**
+     * @return writer keeping the whole document in memory, for {@link #toByteArray()}
+     */
+    static JsonWriter buffered() {
+        return new JsonWriter(null, 0, null);
+    }
+
+
+    /**
+     * Sends a complete, already encoded JSON body
+     */
+    static void send(HttpExchange exchange, int statusCode, byte[] json) throws IOException {
+        Metrics.enter(Metrics.Phase.SERIALIZE);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, json.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(json);
+        }
+    }
+
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+
+    /**
+     * Writes a member name; the value written next belongs to it
+     */
+    JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+
+    /**
+     * @param value string, or null for JSON null
+     */
+    JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        ascii(Long.toString(value));
+        return this;
+    }
+
+
+    JsonWriter value(boolean value) throws IOException {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+
+    /**
+     * @param value Bolt string, or Bolt null for JSON null
+     */
+    JsonWriter value(Value value) throws IOException {
+        return value(value.isNull() ? null : value.asString());
+    }
+
+
+    /**
+     * Writes a Bolt list of strings as an array, element by element, without copying it into a Java list
+     */
+    JsonWriter strings(Value list) throws IOException {
+        beginArray();
+        for (Value element : list.values()) {
+            value(element);
+        }
+        return endArray();
+    }
+
+
+    /**
+     * Ends the top-level document of an NDJSON stream; the next value starts a new one on the next line
+     */
+    JsonWriter newline() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("JSON document is not complete");
+        }
+        put((byte) '\n');
+        hasMember &= ~1L;
+        return this;
+    }
+
+
+    /**
+     * Writes strings as an array
+     */
+    JsonWriter array(Iterable<String> values) throws IOException {
+        beginArray();
+        for (String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+
+    /**
+     * Sends whatever the buffer still holds and completes the response
+     */
+    void finish() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("JSON document is not complete");
+        }
+        finished = true;
+        if (body == null) {
+            Metrics.enter(Metrics.Phase.SERIALIZE);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(statusCode, position);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(buffer, 0, position);
+            }
+        } else {
+            body.write(buffer, 0, position);
+            position = 0;
+            body.close();
+        }
+    }
+
+
+    /**
+     * @return the document written to a {@link #buffered()} writer
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        byte[] released = buffer;
+        buffer = null;
+        if (released != null && released.length == BUFFER_SIZE) {
+            pool.offer(released);
+        }
+        if (body != null && !finished) {
+            // headers are out, so the client can only learn of the failure from the truncated body
+            exchange.close();
+        }
+    }
+
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        if (++depth >= MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        hasMember &= ~(1L << depth);
+        put((byte) bracket);
+        return this;
+    }
+
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("No open JSON container to close");
+        }
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+
+    /**
+     * Comma before every member of a container but the first, nothing between a name and its value
+     */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((hasMember & bit) != 0) {
+            put((byte) ',');
+        } else {
+            hasMember |= bit;
+        }
+    }
+
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    put((byte) '\\');
+                    put((byte) c);
+                } else if (c >= 0x20) {
+                    put((byte) c);
+                } else if (c == '\n') {
+                    ascii("\\n");
+                } else if (c == '\r') {
+                    ascii("\\r");
+                } else if (c == '\t') {
+                    ascii("\\t");
+                } else {
+                    ascii("\\u00");
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xF]);
+                }
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | c >> 6));
+                put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xF0 | codePoint >> 18));
+                put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, not encodable
+                put((byte) '?');
+            } else {
+                put((byte) (0xE0 | c >> 12));
+                put((byte) (0x80 | c >> 6 & 0x3F));
+                put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        put((byte) '"');
+    }
+
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+
+    private void put(byte b) throws IOException {
+        if (position == buffer.length) {
+            overflow();
+        }
+        buffer[position++] = b;
+    }
+
+
+    /**
+     * Grows a buffered writer; commits a response writer to chunked transfer and flushes it
+     */
+    private void overflow() throws IOException {
+        if (exchange == null) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            return;
+        }
+        if (body == null) {
+            Metrics.enter(Metrics.Phase.SERIALIZE);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(statusCode, 0);
+            body = exchange.getResponseBody();
+        }
+        body.write(buffer, 0, position);
+        position = 0;
+    }
+}
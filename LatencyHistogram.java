@@ -0,0 +1,154 @@
+package ca.yorku.eecs;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of latencies in the manner of HdrHistogram: values are grouped by power of two and each
+ * power is split into 64 linear sub-buckets, so every recorded value keeps better than 2% precision over the
+ * whole trackable range at a fixed, small footprint. Recording is lock-free and safe from any thread.
+ * <p>
+ * The unit of the values is the caller's; percentiles report the highest value equivalent to the bucket, as
+ * HdrHistogram does.
+ * </p>
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final long highestTrackable;
+    private final AtomicLongArray counts;
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * @param highestTrackable largest value kept exactly, larger values are recorded as this one
+     */
+    LatencyHistogram(long highestTrackable) {
+        this.highestTrackable = Math.max(SUB_BUCKETS, highestTrackable);
+        this.counts = new AtomicLongArray(index(this.highestTrackable) + 1);
+    }
+
+
+    void record(long value) {
+        value = Math.max(0, Math.min(value, highestTrackable));
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+
+    long count() {
+        return total.sum();
+    }
+
+
+    long sum() {
+        return sum.sum();
+    }
+
+
+    long max() {
+        return max.get();
+    }
+
+
+    double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+
+    /**
+     * @param percentile 0 to 100
+     * @return value at or below which the given share of recorded values falls, 0 if nothing was recorded
+     */
+    long valueAtPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+
+    /**
+     * Adds every value recorded in another histogram of the same range
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < Math.min(counts.length(), other.counts.length()); i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+
+    /**
+     * Writes the percentile distribution in HdrHistogram's .hgrm text format, so the usual plotting tools read it
+     *
+     * @param out   destination
+     * @param scale divisor applied to every value, e.g. 1000.0 to print microseconds as milliseconds
+     */
+    void outputPercentileDistribution(PrintStream out, double scale) {
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        long count = total.sum();
+        long seen = 0;
+        for (int i = 0; i < counts.length() && count > 0; i++) {
+            long bucket = counts.get(i);
+            if (bucket == 0) {
+                continue;
+            }
+            seen += bucket;
+            double fraction = (double) seen / count;
+            if (fraction < 1) {
+                out.printf("%12.3f %2.12f %10d %14.2f%n", highestValue(i) / scale, fraction, seen, 1 / (1 - fraction));
+            } else {
+                out.printf("%12.3f %2.12f %10d%n", max.get() / scale, fraction, seen);
+            }
+        }
+        out.printf("#[Mean    = %12.3f]%n", mean() / scale);
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max.get() / scale, count);
+    }
+
+
+    /**
+     * Values below 128 get a bucket each; above that, value v with highest bit h lands in bucket
+     * 128 + (h - 7) * 64 + (v >>> (h - 6)) - 64
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
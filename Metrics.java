@@ -0,0 +1,411 @@
+package ca.yorku.eecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request instrumentation, served in the Prometheus text format by {@link #handler(EntityCache, SingleFlight)}.
+ * <p>
+ * Every request is counted per route and status code by the {@link #timing()} middleware, and its latency
+ * is recorded in total and split by {@link Phase}. A request's timer lives in a thread local; the phase it is
+ * in is switched by the code that starts the next step (the {@link #parsing} middleware once the request body is
+ * read, opening the Neo4j session, writing the response), so handlers need no timing code of their own.
+ * Recording is lock-free: counters are LongAdders and latencies go to {@link LatencyHistogram}s.
+ * </p>
+ * Latencies are kept in microseconds since startup and exported as summaries in seconds.
+ */
+final class Metrics {
+
+    /**
+     * Where a request's time goes. Time before the route is known counts as parsing.
+     */
+    enum Phase {
+        /** until the handler has read the request body */
+        PARSE,
+        /** work in the handler itself, e.g. searching the resident graph */
+        COMPUTE,
+        /** from asking for a session until the unit of work is closed, session acquisition included */
+        NEO4J,
+        /** writing the response */
+        SERIALIZE
+    }
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+    private static final LongAdder inFlight = new LongAdder();
+    private static final ThreadLocal<Timer> current = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+
+    /**
+     * @return middleware timing every request of the route it runs for, and counting what the route throws
+     */
+    static Router.Middleware timing() {
+        return (route, exchange, next) -> {
+            Timer timer = begin(route);
+            try {
+                next.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                exception(e);
+                throw e;
+            } finally {
+                if (!timer.detached) {
+                    timer.end(exchange);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Starts timing a request on the calling thread. The timer must be ended by {@link Timer#end(HttpExchange)}.
+     *
+     * @param route label the request is counted under
+     */
+    static Timer begin(String route) {
+        Timer timer = new Timer(route);
+        current.set(timer);
+        inFlight.increment();
+        return timer;
+    }
+
+
+    /**
+     * Ends a request's {@link Phase#PARSE} once the handler has read the request body to its end or closed it,
+     * and right away for a request without a body. Nothing is buffered: the body stays the handler's to read.
+     * Routes streaming their body, e.g. a bulk load, read it while their Neo4j batches run, so they enter
+     * {@link Phase#COMPUTE} right away too.
+     *
+     * @param streamed routes whose body is read in the course of the work
+     * @return middleware ending the parse phase of every request it runs for
+     */
+    static Router.Middleware parsing(String... streamed) {
+        Set<String> streamedRoutes = new HashSet<>(Arrays.asList(streamed));
+        return (route, exchange, next) -> {
+            if (streamedRoutes.contains(route) || !hasBody(exchange)) {
+                enter(Phase.COMPUTE);
+            } else {
+                exchange.setStreams(new BodyRead(exchange.getRequestBody()), null);
+            }
+            next.handle(exchange);
+        };
+    }
+
+
+    private static boolean hasBody(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            return !"0".equals(length.trim());
+        }
+        return exchange.getRequestHeaders().containsKey("Transfer-Encoding");
+    }
+
+
+    /**
+     * Switches the request on this thread to another phase, does nothing outside a timed request
+     */
+    static void enter(Phase phase) {
+        Timer timer = current.get();
+        if (timer != null) {
+            timer.enter(phase);
+        }
+    }
+
+
+    /**
+     * Hands the request on this thread over to a callback that answers it later. The timer keeps running in the
+     * given phase and the timing middleware leaves it alone; the callback calls {@link Timer#resume()} before
+     * answering and {@link Timer#end} once done.
+     *
+     * @param waiting phase the request spends until the callback runs
+     * @return the request's timer, or one recording nothing outside a timed request
+     */
+    static Timer detach(Phase waiting) {
+        Timer timer = current.get();
+        if (timer == null) {
+            return new Timer(null);
+        }
+        current.remove();
+        timer.detached = true;
+        timer.enter(waiting);
+        return timer;
+    }
+
+
+    /**
+     * Counts an exception a handler caught and answered for itself
+     */
+    static void exception(Throwable e) {
+        counter(exceptions, e.getClass().getSimpleName()).increment();
+    }
+
+
+    /**
+     * @param cache cache of the API handler, reported alongside the requests
+     * @param reads coalesced reads of the API handler
+     * @return handler answering GET with every metric
+     */
+    static HttpHandler handler(EntityCache cache, SingleFlight<?> reads) {
+        return exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = scrape(cache, reads).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        };
+    }
+
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    static String scrape(EntityCache cache, SingleFlight<?> reads) {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, Route> sorted = new TreeMap<>(routes);
+
+        type(out, "bacon_http_requests_total", "counter", "Requests answered, by route and status code");
+        for (Map.Entry<String, Route> route : sorted.entrySet()) {
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(route.getValue().statuses).entrySet()) {
+                out.append("bacon_http_requests_total{route=\"").append(route.getKey())
+                        .append("\",code=\"").append(status.getKey()).append("\"} ")
+                        .append(status.getValue().sum()).append('\n');
+            }
+        }
+
+        type(out, "bacon_http_requests_in_flight", "gauge", "Requests being handled");
+        sample(out, "bacon_http_requests_in_flight", "", inFlight.sum());
+
+        type(out, "bacon_http_request_duration_seconds", "summary", "Request latency, by route");
+        for (Map.Entry<String, Route> route : sorted.entrySet()) {
+            summary(out, "bacon_http_request_duration_seconds", "route=\"" + route.getKey() + "\"",
+                    route.getValue().total);
+        }
+
+        type(out, "bacon_http_request_phase_seconds", "summary",
+                "Time spent in each phase of the requests that went through it, by route");
+        for (Map.Entry<String, Route> route : sorted.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = route.getValue().phases[phase.ordinal()];
+                if (histogram.count() > 0) {
+                    summary(out, "bacon_http_request_phase_seconds", "route=\"" + route.getKey() + "\",phase=\"" +
+                            phase.name().toLowerCase() + "\"", histogram);
+                }
+            }
+        }
+
+        type(out, "bacon_handler_exceptions_total", "counter", "Exceptions caught by the handlers, by class");
+        for (Map.Entry<String, LongAdder> exception : new TreeMap<>(exceptions).entrySet()) {
+            sample(out, "bacon_handler_exceptions_total", "exception=\"" + exception.getKey() + "\"",
+                    exception.getValue().sum());
+        }
+
+        type(out, "bacon_neo4j_session_acquire_seconds", "summary", "Wait for a pooled Neo4j session");
+        summary(out, "bacon_neo4j_session_acquire_seconds", "", Utils.sessionWait());
+        type(out, "bacon_neo4j_sessions_in_use", "gauge", "Sessions held by requests");
+        sample(out, "bacon_neo4j_sessions_in_use", "", Utils.sessionsInUse());
+        type(out, "bacon_neo4j_sessions_awaited", "gauge", "Requests waiting for a session");
+        sample(out, "bacon_neo4j_sessions_awaited", "", Utils.sessionsAwaited());
+        type(out, "bacon_neo4j_sessions_max", "gauge", "Size of the session pool");
+        sample(out, "bacon_neo4j_sessions_max", "", Utils.maxPoolSize());
+
+        type(out, "bacon_entity_cache_hits_total", "counter", "getActor / getMovie responses served from the cache");
+        sample(out, "bacon_entity_cache_hits_total", "", cache.hits());
+        type(out, "bacon_entity_cache_misses_total", "counter", "getActor / getMovie lookups that went to Neo4j");
+        sample(out, "bacon_entity_cache_misses_total", "", cache.misses());
+        type(out, "bacon_entity_cache_evictions_total", "counter", "Entries evicted to stay within the size");
+        sample(out, "bacon_entity_cache_evictions_total", "", cache.evictions());
+        type(out, "bacon_entity_cache_size", "gauge", "Entries in the cache");
+        sample(out, "bacon_entity_cache_size", "", cache.size());
+
+        type(out, "bacon_neo4j_reads_started_total", "counter", "Read queries sent to Neo4j by the read endpoints");
+        sample(out, "bacon_neo4j_reads_started_total", "", reads.started());
+        type(out, "bacon_neo4j_reads_coalesced_total", "counter",
+                "Requests answered from an identical read already running instead of a query of their own");
+        sample(out, "bacon_neo4j_reads_coalesced_total", "", reads.coalesced());
+        type(out, "bacon_neo4j_reads_in_flight", "gauge", "Distinct read queries running");
+        sample(out, "bacon_neo4j_reads_in_flight", "", reads.inFlight());
+        return out.toString();
+    }
+
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram micros) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append(separator).append("quantile=\"").append(quantile)
+                    .append("\"} ").append(micros.valueAtPercentile(quantile * 100) / 1e6).append('\n');
+        }
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(micros.sum() / 1e6).append('\n');
+        out.append(name).append("_count").append(suffix).append(micros.count()).append('\n');
+    }
+
+
+    private static <K> LongAdder counter(ConcurrentHashMap<K, LongAdder> counters, K key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+
+    private static LatencyHistogram histogram() {
+        return new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+    }
+
+
+    /**
+     * Results of one route
+     */
+    private static final class Route {
+        final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LatencyHistogram total = histogram();
+        final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+        Route() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = histogram();
+            }
+        }
+    }
+
+
+    /**
+     * Clock of one request, only touched by one thread at a time: the one handling it, then the callback it was
+     * detached to
+     */
+    static final class Timer {
+        private final long start = System.nanoTime();
+        private final long[] phaseNanos = new long[Phase.values().length];
+        private final String route;
+        private Phase phase = Phase.PARSE;
+        private long phaseStart = start;
+        private boolean detached;
+
+        private Timer(String route) {
+            this.route = route;
+        }
+
+        private void enter(Phase next) {
+            long now = System.nanoTime();
+            phaseNanos[phase.ordinal()] += now - phaseStart;
+            phase = next;
+            phaseStart = now;
+        }
+
+        /**
+         * Makes this the timer of the calling thread again, after {@link #detach}
+         */
+        void resume() {
+            if (route != null) {
+                current.set(this);
+                enter(Phase.COMPUTE);
+            }
+        }
+
+        /**
+         * Records the request under the status code it was answered with, 500 if none was sent
+         */
+        void end(HttpExchange exchange) {
+            current.remove();
+            if (route == null) {
+                return;
+            }
+            enter(phase);
+            inFlight.decrement();
+
+            Route metrics = routes.get(route);
+            if (metrics == null) {
+                metrics = routes.computeIfAbsent(route, r -> new Route());
+            }
+            int status = exchange.getResponseCode();
+            counter(metrics.statuses, status < 0 ? 500 : status).increment();
+            metrics.total.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            for (Phase p : Phase.values()) {
+                if (phaseNanos[p.ordinal()] > 0) {
+                    metrics.phases[p.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(phaseNanos[p.ordinal()]));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Request body that ends the parse phase of its request when it is read to the end or closed, unless the
+     * request has moved on to another phase already
+     */
+    private static final class BodyRead extends FilterInputStream {
+
+        BodyRead(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                parsed();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                parsed();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            parsed();
+        }
+
+        private void parsed() {
+            Timer timer = current.get();
+            if (timer != null && timer.phase == Phase.PARSE) {
+                timer.enter(Phase.COMPUTE);
+            }
+        }
+    }
+}
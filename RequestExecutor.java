@@ -0,0 +1,213 @@
+package ca.yorku.eecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the executor the HttpServer dispatches exchanges on.
+ * <p>
+ * server.executor=virtual runs every exchange on its own virtual thread (Java 21+, otherwise falls back to the
+ * bounded pool). server.executor=bounded uses server.threads platform threads and a queue of server.queue
+ * exchanges; once the queue is full, further exchanges are answered 503 straight away by {@link #shedding}, on
+ * server.shedThreads threads of their own so the dispatcher thread keeps accepting connections.
+ * </p>
+ */
+class RequestExecutor {
+
+    // set while a rejected exchange runs, so the handler only writes a 503
+    private static final ThreadLocal<Boolean> SHED = new ThreadLocal<>();
+
+    // created on first use, see callbacks()
+    private static volatile Executor callbacks;
+
+    private RequestExecutor() {
+    }
+
+
+    /**
+     * @return executor configured by server.executor, server.threads and server.queue
+     */
+    static ExecutorService create() {
+        String mode = Settings.get("server.executor", "virtual");
+        if ("virtual".equals(mode)) {
+            ExecutorService executor = virtualThreadPerTask();
+            if (executor != null) {
+                System.out.println("Serving requests on virtual threads");
+                return executor;
+            }
+            System.out.println("Virtual threads not available on this JVM, using a bounded pool");
+        } else if (!"bounded".equals(mode)) {
+            throw new IllegalArgumentException("server.executor must be virtual or bounded, not " + mode);
+        }
+
+        int threads = Settings.getInt("server.threads", Runtime.getRuntime().availableProcessors() * 8);
+        int queue = Settings.getInt("server.queue", threads * 4);
+        int shedThreads = Settings.getInt("server.shedThreads", 2);
+        System.out.printf("Serving requests on %d threads, queue limit %d\n", threads, queue);
+        return bounded(threads, queue, shedThreads);
+    }
+
+
+    /**
+     * Threads answering exchanges whose queries completed on the driver's async API. Writing a response may block
+     * on the socket, which must not happen on the driver's own event loop threads.
+     *
+     * @return executor sized by server.callbackThreads
+     */
+    static Executor callbacks() {
+        Executor executor = callbacks;
+        if (executor == null) {
+            synchronized (RequestExecutor.class) {
+                if (callbacks == null) {
+                    int threads = Settings.getInt("server.callbackThreads", Runtime.getRuntime().availableProcessors());
+                    AtomicInteger count = new AtomicInteger();
+                    callbacks = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "http-callback-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                executor = callbacks;
+            }
+        }
+        return executor;
+    }
+
+
+    /**
+     * Fixed pool whose overflow is handed, with the shed flag set, to a small pool of its own. The HttpServer's
+     * exchange reads the request headers before the handler can answer, which a slow client stretches out, so
+     * it must not run on the dispatcher thread. Only once the shed pool's queue is full as well does an exchange
+     * run on the dispatcher thread.
+     *
+     * @param threads     worker threads
+     * @param queue       exchanges allowed to wait for a worker, and for a shed thread
+     * @param shedThreads threads answering the overflow with 503
+     * @return the pool
+     */
+    static ExecutorService bounded(int threads, int queue, int shedThreads) {
+        ThreadPoolExecutor shedPool = new ThreadPoolExecutor(shedThreads, shedThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)), daemons("http-shed-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        RejectedExecutionHandler shed = (runnable, executor) -> shedPool.execute(() -> {
+            SHED.set(Boolean.TRUE);
+            try {
+                runnable.run();
+            } finally {
+                SHED.remove();
+            }
+        });
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), daemons("http-worker-"), shed);
+    }
+
+
+    private static ThreadFactory daemons(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    /**
+     * Wraps a handler so exchanges rejected by the bounded pool get a 503 without touching the database
+     *
+     * @param handler the real handler
+     * @return wrapping handler
+     */
+    static HttpHandler shedding(HttpHandler handler) {
+        return exchange -> {
+            if (SHED.get() != null) {
+                reject(exchange);
+            } else {
+                handler.handle(exchange);
+            }
+        };
+    }
+
+
+    /**
+     * Route middleware letting at most the given number of exchanges run the route at once; the others are
+     * answered 503 straight away
+     *
+     * @param permits exchanges allowed to run together
+     * @return the middleware
+     */
+    static Router.Middleware limit(int permits) {
+        Semaphore running = new Semaphore(permits);
+        return (route, exchange, next) -> {
+            if (!running.tryAcquire()) {
+                reject(exchange);
+                return;
+            }
+            try {
+                next.handle(exchange);
+            } finally {
+                running.release();
+            }
+        };
+    }
+
+
+    /**
+     * Stops accepting work and waits for queued and running exchanges to finish
+     *
+     * @param executor executor created by {@link #create()}
+     * @param deadline System.nanoTime() by which to give up, shared with the server's own stop
+     */
+    static void drain(ExecutorService executor, long deadline) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                System.out.println("Requests still running after drain timeout, stopping them");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static void reject(HttpExchange exchange) throws IOException {
+        byte[] response = "Server busy, try again later".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(503, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() looked up reflectively, the code still targets older JVMs
+     *
+     * @return the executor, or null when the running JVM has no virtual threads
+     */
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ca.yorku.eecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Dispatches exchanges by exact path and method through a hash table built at registration, so adding an
+ * endpoint does not slow the others down.
+ * <p>
+ * A path that is not registered is answered 404; a registered path asked for with another method is answered
+ * 405 with an Allow header. Each route runs inside its own middleware, then the middleware given to
+ * {@link #use}; the chains are composed once when the route is registered.
+ * </p>
+ * Routes are registered before the router serves its first exchange and are not changed afterwards.
+ */
+final class Router implements HttpHandler {
+
+    /**
+     * Label the middleware is given for requests no route matches
+     */
+    static final String UNMATCHED = "unmatched";
+
+    /**
+     * Code run around a route's handler, e.g. for metrics, caching or limits
+     */
+    interface Middleware {
+        /**
+         * @param route    path the route was registered with, or {@link #UNMATCHED}
+         * @param exchange the exchange
+         * @param next     rest of the chain, which the middleware calls unless it answers the exchange itself
+         */
+        void handle(String route, HttpExchange exchange, HttpHandler next) throws IOException;
+    }
+
+    private final Map<String, Map<String, HttpHandler>> routes = new HashMap<>();
+    private final Map<String, String> allowed = new HashMap<>();
+    private final List<Middleware> global = new ArrayList<>();
+    private HttpHandler unmatched;
+
+
+    Router() {
+        unmatched = compose(UNMATCHED, this::unmatchedHandler, Collections.emptyList());
+    }
+
+
+    /**
+     * Adds middleware around every route; must be called before the routes are registered
+     */
+    Router use(Middleware middleware) {
+        if (!routes.isEmpty()) {
+            throw new IllegalStateException("Middleware must be added before the routes");
+        }
+        global.add(middleware);
+        unmatched = compose(UNMATCHED, this::unmatchedHandler, Collections.emptyList());
+        return this;
+    }
+
+
+    /**
+     * Registers a handler for one method of a path
+     *
+     * @param method     HTTP method, e.g. GET
+     * @param path       full request path, e.g. /api/v1/getActor
+     * @param handler    handler answering the exchange
+     * @param middleware run around this route only, outermost first
+     * @throws IllegalStateException if the method of that path is already registered
+     */
+    Router on(String method, String path, HttpHandler handler, Middleware... middleware) {
+        Map<String, HttpHandler> methods = routes.computeIfAbsent(path, p -> new HashMap<>());
+        if (methods.containsKey(method)) {
+            throw new IllegalStateException(method + " " + path + " is already registered");
+        }
+        List<Middleware> own = new ArrayList<>();
+        Collections.addAll(own, middleware);
+        methods.put(method, compose(path, handler, own));
+        allowed.put(path, String.join(", ", new TreeSet<>(methods.keySet())));
+        return this;
+    }
+
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, HttpHandler> methods = routes.get(exchange.getRequestURI().getPath());
+        HttpHandler handler = methods == null ? null : methods.get(exchange.getRequestMethod());
+        (handler != null ? handler : unmatched).handle(exchange);
+    }
+
+
+    /**
+     * Wraps the handler in the route's own middleware, then the global middleware
+     */
+    private HttpHandler compose(String route, HttpHandler handler, List<Middleware> own) {
+        List<Middleware> chain = new ArrayList<>(global);
+        chain.addAll(own);
+        HttpHandler next = handler;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Middleware middleware = chain.get(i);
+            HttpHandler inner = next;
+            next = exchange -> middleware.handle(route, exchange, inner);
+        }
+        return next;
+    }
+
+
+    /**
+     * 405 if the path exists for other methods, otherwise 404
+     */
+    private void unmatchedHandler(HttpExchange exchange) throws IOException {
+        String allow = allowed.get(exchange.getRequestURI().getPath());
+        if (allow != null) {
+            exchange.getResponseHeaders().set("Allow", allow);
+            respond(exchange, 405, "Method not allowed");
+        } else {
+            respond(exchange, 404, "Endpoint not found");
+        }
+    }
+
+
+    private static void respond(HttpExchange exchange, int statusCode, String response) throws IOException {
+        Metrics.enter(Metrics.Phase.SERIALIZE);
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ca.yorku.eecs;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Values;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Startup step making sure the schema the handlers rely on exists: uniqueness constraints on Actor.actorId and
+ * Movie.movieId, whose backing indexes turn every {actorId: ...} / {movieId: ...} lookup into an index seek
+ * and stop concurrent MERGEs from creating duplicates.
+ * <p>
+ * Constraints are created with the Neo4j 3.x syntax, which is a no-op when they already exist, then read back
+ * from db.constraints(). Creation fails if the data already holds duplicate ids; that is reported and left to
+ * an operator rather than repaired here.
+ * </p>
+ * Settings: schema.create (default true, false only verifies), schema.awaitSeconds, schema.strict (refuse to
+ * serve when the schema is missing, checked by {@link App}).
+ */
+class SchemaMigration {
+
+    // label and property of each uniqueness constraint
+    private static final String[][] UNIQUE = {
+            {"Actor", "actorId"},
+            {"Movie", "movieId"}
+    };
+
+
+    /**
+     * @return true if every constraint is in place and its index is online
+     */
+    static boolean ensure() {
+        try (Session session = Utils.getSession()) {
+            if (Settings.getBoolean("schema.create", true)) {
+                for (String[] unique : UNIQUE) {
+                    try {
+                        session.run("CREATE CONSTRAINT ON (n:" + unique[0] + ") ASSERT n." + unique[1] + " IS UNIQUE")
+                                .consume();
+                    } catch (Exception e) {
+                        System.out.printf("Could not create unique constraint on :%s(%s): %s\n",
+                                unique[0], unique[1], e.getMessage());
+                    }
+                }
+            }
+            session.run("CALL db.awaitIndexes($seconds)",
+                    Values.parameters("seconds", Settings.getInt("schema.awaitSeconds", 300))).consume();
+
+            List<String> constraints = new ArrayList<>();
+            StatementResult result = session.run("CALL db.constraints()");
+            while (result.hasNext()) {
+                Record record = result.next();
+                // e.g. "CONSTRAINT ON ( actor:Actor ) ASSERT actor.actorId IS UNIQUE"
+                constraints.add(record.get("description").asString().replace(" ", ""));
+            }
+
+            List<String> missing = new ArrayList<>();
+            for (String[] unique : UNIQUE) {
+                boolean found = false;
+                for (String constraint : constraints) {
+                    if (constraint.contains(":" + unique[0] + ")") && constraint.endsWith("." + unique[1] + "ISUNIQUE")) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    missing.add(":" + unique[0] + "(" + unique[1] + ")");
+                }
+            }
+
+            if (missing.isEmpty()) {
+                System.out.println("Schema verified: unique :Actor(actorId), :Movie(movieId)");
+                return true;
+            }
+            System.out.println("WARNING: missing unique constraints " + missing +
+                    ", lookups on them scan every node of the label");
+            return false;
+        } catch (Exception e) {
+            System.out.println("WARNING: schema could not be verified: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ca.yorku.eecs;
+
+/**
+ * Configuration lookup. A JVM system property (-Dserver.port=9090) wins over an environment variable
+ * (SERVER_PORT), which wins over the default given by the caller.
+ */
+class Settings {
+
+    private Settings() {
+    }
+
+
+    static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+
+    static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
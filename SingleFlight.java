@@ -0,0 +1,83 @@
+package ca.yorku.eecs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Merges identical concurrent reads onto one query: the first request for a key starts it, every request for
+ * the same key arriving while it runs gets the same result instead of querying again.
+ * <p>
+ * A key is forgotten as soon as its query completes, before the result is handed out, so a request arriving
+ * later always starts a fresh query and never sees a result older than itself. Keys must therefore name
+ * everything the result depends on, e.g. the centre of a Bacon path, and the {@link EntityCache#stamp()} taken
+ * when the request arrived: every acknowledged write bumps it, so a request arriving after a write never joins
+ * a query started before that write.
+ * </p>
+ * Results are shared between the requests, so they must not be modified.
+ *
+ * @param <T> query result
+ */
+final class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> flights = new ConcurrentHashMap<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+
+    /**
+     * @param key   identifies the query and its parameters
+     * @param query starts the query, only called if none is running for the key
+     * @return result of the running query for the key, or of the one started
+     */
+    CompletionStage<T> run(String key, Supplier<? extends CompletionStage<T>> query) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        started.increment();
+        CompletionStage<T> result;
+        try {
+            result = query.get();
+        } catch (RuntimeException e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            return flight;
+        }
+        result.whenComplete((value, error) -> {
+            flights.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(value);
+            }
+        });
+        return flight;
+    }
+
+
+    /**
+     * @return queries started
+     */
+    long started() {
+        return started.sum();
+    }
+
+    /**
+     * @return requests that joined a running query instead of starting one
+     */
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return queries running
+     */
+    int inFlight() {
+        return flights.size();
+    }
+}
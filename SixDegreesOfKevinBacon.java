@@ -3,6 +3,7 @@ package ca.yorku.eecs;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.neo4j.driver.v1.*;
@@ -10,101 +11,121 @@ import org.neo4j.driver.v1.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 public class SixDegreesOfKevinBacon implements HttpHandler {
 
+    static final String KEVIN_BACON_ID = "nm0000102";
 
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
 
-        // Get request path and method
-        String path = exchange.getRequestURI().getPath();
-        String methodRequested = exchange.getRequestMethod();
+    // actorIds resolved per UNWIND query while the graph is cold, each batch is streamed once it returns
+    private static final int BACON_NUMBER_BATCH = 1000;
+    private static final int MAX_BACON_NUMBER_ACTORS = Settings.getInt("bacon.batch.maxActors", 100000);
 
+    /**
+     * Result of a conditional write, decided by the database inside the write's own transaction
+     */
+    enum WriteOutcome {
+        CREATED,
+        ALREADY_EXISTS,
+        NOT_FOUND
+    }
 
-        // Handle PUT or POST requests
-        if ("PUT".equals(methodRequested) || "POST".equals(methodRequested)) {
-            if ("/api/v1/addActor".equals(path)) {
-                AddActorHandle(exchange);
-            } else if ("/api/v1/addMovie".equals(path)) {
-                AddMovieHandle(exchange);
-            } else if ("/api/v1/addRelationship".equals(path)) {
-                AddRelationshipHandle(exchange);
-            } else {
-                GetResponseStatus(exchange, 400, "Endpoint is not valid");
-            }
-
-        }
+    private final CoStarGraph graph;
+    private final CentreRegistry centres;
+    private final ActorLeaderboard leaderboard;
+    private final GenreIndex genreIndex;
+    private final EntityCache entityCache = EntityCache.fromSettings();
+    // identical reads running at the same time share one query, see readKey
+    private final SingleFlight<List<Record>> reads = new SingleFlight<>();
+    // each load holds a session and writes large transactions for as long as its body streams in
+    private final Router.Middleware bulkLoadLimit =
+            RequestExecutor.limit(Settings.getInt("bulkLoad.maxConcurrent", 2));
+    // each export holds a session and scans the whole database
+    private final Router.Middleware exportLimit =
+            RequestExecutor.limit(Settings.getInt("export.maxConcurrent", 1));
+    private final Router router;
 
-        // Handle GET requests
-        else if ("GET".equals(methodRequested)) {
 
-            if ("/api/v1/getActor".equals(path)) {
-                getActorHandler(exchange);
-            } else if ("/api/v1/getMovie".equals(path)) {
-                getMovieHandler(exchange);
-            } else if ("/api/v1/top10Actors".equals(path)) {
-                top10ActorsHandler(exchange);
-            } else if ("/api/v1/hasRelationship".equals(path)) {
-                hasRelationshipHandler(exchange);
-            } else if ("/api/v1/computeBaconNumber".equals(path)) {
-                computeBaconNumberHandler(exchange);
-            } else if ("/api/v1/computeBaconPath".equals(path)) {
-                computeBaconPathHandler(exchange);
-            } else if ("/api/v1/moviesByGenre".equals(path)) {
-                moviesByGenreHandler(exchange);
-            } else {
-                GetResponseStatus(exchange, 400, "Endpoint is not valid");
-            }
-        }
+    /**
+     * @param graph resident co-star graph, answers the Bacon endpoints while it is in sync with Neo4j
+     */
+    public SixDegreesOfKevinBacon(CoStarGraph graph) {
+        this.graph = graph;
+        this.centres = CentreRegistry.fromSettings(graph, KEVIN_BACON_ID);
+        this.leaderboard = new ActorLeaderboard(graph);
+        this.genreIndex = new GenreIndex(graph);
+        this.router = routes();
+    }
 
-        // Handle DELETE requests
-        else if ("DELETE".equals(methodRequested)) {
+    EntityCache entityCache() {
+        return entityCache;
+    }
 
-            if ("/api/v1/deleteActor".equals(path)) {
-                deleteActorHandler(exchange);
-            } else {
-                GetResponseStatus(exchange, 400, "Endpoint is not valid");
-            }
-        }
+    SingleFlight<List<Record>> reads() {
+        return reads;
+    }
 
-        // Invalid request method
 
-        else {
-            GetResponseStatus(exchange, 400, "Endpoint is not valid");
-        }
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        router.handle(exchange);
     }
 
 
     /**
-     * Adding a new actor endpoint
-     *
-     * @param name    Actor's name
-     * @param actorId actorID  for the actor, which must be unique
+     * Every endpoint of the API. Writes accept PUT as well as POST.
      */
-
-    private void addActor(String name, String actorId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "CREATE (a:Actor {actorId: $actorId, name: $name})";
-            session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId, "name", name)));
+    private Router routes() {
+        Router router = new Router().use(Metrics.timing()).use(Metrics.parsing("/api/v1/bulkLoad"));
+        for (String method : new String[]{"PUT", "POST"}) {
+            router.on(method, "/api/v1/addActor", this::AddActorHandle)
+                    .on(method, "/api/v1/addMovie", this::AddMovieHandle)
+                    .on(method, "/api/v1/addRelationship", this::AddRelationshipHandle)
+                    .on(method, "/api/v1/bulkLoad", this::bulkLoadHandler, bulkLoadLimit);
         }
+        router.on("POST", "/api/v1/computeBaconNumbers", this::computeBaconNumbersHandler);
+        return router
+                .on("GET", "/api/v1/getActor", this::getActorHandler)
+                .on("GET", "/api/v1/getMovie", this::getMovieHandler)
+                .on("GET", "/api/v1/top10Actors", this::top10ActorsHandler)
+                .on("GET", "/api/v1/topActors", this::topActorsHandler)
+                .on("GET", "/api/v1/hasRelationship", this::hasRelationshipHandler)
+                .on("GET", "/api/v1/computeBaconNumber", this::computeBaconNumberHandler)
+                .on("GET", "/api/v1/computeBaconPath", this::computeBaconPathHandler)
+                .on("GET", "/api/v1/computeDegrees", this::computeDegreesHandler)
+                .on("GET", "/api/v1/computeDegreesPath", this::computeDegreesPathHandler)
+                .on("GET", "/api/v1/moviesByGenre", this::moviesByGenreHandler)
+                .on("GET", "/api/v1/export", this::exportHandler, exportLimit)
+                .on("DELETE", "/api/v1/deleteActor", this::deleteActorHandler);
     }
 
 
     /**
-     * @param actorId
-     * @return boolean if actor is unique or not based on actorId
+     * Adding a new actor endpoint
+     * <p>
+     * A single MERGE both checks for and creates the actor, so concurrent requests cannot insert it twice
+     * </p>
+     *
+     * @param session session of the request's unit of work
+     * @param name    Actor's name
+     * @param actorId actorID  for the actor, which must be unique
+     * @return true if the actor was created, false if an actor with that actorId already exists
      */
-    private boolean IsActorNotUnique(String actorId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (a:Actor {actorId: $actorId}) RETURN a";
-            return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId))).hasNext();
 
-        }
+    private boolean addActor(Session session, String name, String actorId) {
+        String statementTemplate = "MERGE (a:Actor {actorId: $actorId}) ON CREATE SET a.name = $name";
+        return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId, "name", name))
+                .consume().counters().nodesCreated() > 0);
     }
 
 
@@ -132,18 +153,23 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
             // ensure both name and actor are not null and empty
             if ((name != null && actorId != null) && (!name.isEmpty() && !actorId.isEmpty())) {
 
-                // Check if the actor already exists - response 400 status if actor exist
-                if (IsActorNotUnique(actorId)) {
-                    GetResponseStatus(exchange, 400, "Actor already exists");
+                boolean created;
+                try (UnitOfWork work = Utils.unitOfWork()) {
+                    created = addActor(work.session(), name, actorId);
+                } catch (Exception e) {
+                    // fail to add actor - response 500 status
+                    GetResponseStatus(exchange, 500, "Actor failed to add");
+                    return;
+                }
+
+                if (created) {
+                    // successful add of actor - response with a 200 status
+                    graph.addActor(actorId, name);
+                    entityCache.invalidate(EntityCache.actorKey(actorId));
+                    GetResponseStatus(exchange, 200, "Actor successfully added");
                 } else {
-                    try {
-                        // successful add of actor - response with a 200 status
-                        addActor(name, actorId);
-                        GetResponseStatus(exchange, 200, "Actor successfully added");
-                    } catch (Exception e) {
-                        // fail to add actor - response 500 status
-                        GetResponseStatus(exchange, 500, "Actor failed to add");
-                    }
+                    // the actor already exists - response 400 status
+                    GetResponseStatus(exchange, 400, "Actor already exists");
                 }
             } else {
                 // Respond 400  if the JSON format is invalid or missing info
@@ -151,7 +177,7 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
             }
         } catch (JSONException e) {
             // Handle JSON parsing errors
-            e.printStackTrace();
+            Metrics.exception(e);
             // Respond 400  if the JSON format is invalid or missing info
             GetResponseStatus(exchange, 400, "JSON format not valid");
         }
@@ -160,29 +186,20 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
     /**
      * Adding a new movie endpoint
+     * <p>
+     * A single MERGE both checks for and creates the movie, so concurrent requests cannot insert it twice
+     * </p>
      *
+     * @param session session of the request's unit of work
      * @param name    Movie's name
      * @param movieId movieId  for the movie, which must be unique
+     * @return true if the movie was created, false if a movie with that movieId already exists
      */
 
-    public void addMovie(String name, String movieId, String genre) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "CREATE (m:Movie {movieId: $movieId, name: $name, genre: $genre})";
-            session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("movieId", movieId,
-                    "name", name, "genre", genre)));
-        }
-    }
-
-    /**
-     * @param movieId
-     * @return boolean if movie is unique or not based on movieId
-     */
-    private boolean IsMovieNotUnique(String movieId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (m:Movie {movieId: $movieId}) RETURN m";
-            return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("movieId", movieId))).hasNext();
-
-        }
+    public boolean addMovie(Session session, String name, String movieId, String genre) {
+        String statementTemplate = "MERGE (m:Movie {movieId: $movieId}) ON CREATE SET m.name = $name, m.genre = $genre";
+        return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("movieId", movieId,
+                "name", name, "genre", genre)).consume().counters().nodesCreated() > 0);
     }
 
 
@@ -206,26 +223,30 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
             String genre = deserialized.has("genre") ? deserialized.getString("genre") : null;
 
             if ((name != null && movieId != null && genre != null) && (!name.isEmpty() && !movieId.isEmpty() && !genre.isEmpty())) {
-                // Check if the movie already exists - response 400 status if movie exist
+                boolean created;
+                try (UnitOfWork work = Utils.unitOfWork()) {
+                    created = addMovie(work.session(), name, movieId, genre);
+                } catch (Exception e) {
+                    // fail to add movie - response 500 status
+                    GetResponseStatus(exchange, 500, "Movie failed to add");
+                    return;
+                }
 
-                if (IsMovieNotUnique(movieId)) {
-                    GetResponseStatus(exchange, 400, "Movie already exists");
+                if (created) {
+                    // successful add of movie - response with a 200 status
+                    graph.addMovie(movieId, name, genre);
+                    entityCache.invalidate(EntityCache.movieKey(movieId));
+                    GetResponseStatus(exchange, 200, "Movie successfully added");
                 } else {
-                    try {
-                        // successful add of movie - response with a 200 status
-                        addMovie(name, movieId, genre);
-                        GetResponseStatus(exchange, 200, "Movie successfully added");
-                    } catch (Exception e) {
-                        // fail to add movie - response 500 status
-                        GetResponseStatus(exchange, 500, "Movie failed to add");
-                    }
+                    // the movie already exists - response 400 status
+                    GetResponseStatus(exchange, 400, "Movie already exists");
                 }
             } else {
                 // Respond 400  if the JSON format is invalid or missing info
                 GetResponseStatus(exchange, 400, "JSON format not valid");
             }
         } catch (JSONException e) {
-            e.printStackTrace();
+            Metrics.exception(e);
             // Respond 400  if the JSON format is invalid or missing info
             GetResponseStatus(exchange, 400, "JSON format not valid");
         }
@@ -237,64 +258,30 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * <p>
      * Makes an "ACTED_IN" relationship between the  actor and movie
      * if both entities exist and relatioship is not already created.
+     * The lookups and the MERGE run as one statement in one transaction.
      * </p>
      *
+     * @param session session of the request's unit of work
      * @param movieId The unique for each  movie.
      * @param actorId The unique for each actor.
+     * @return CREATED, ALREADY_EXISTS, or NOT_FOUND if the actor or the movie does not exist
      */
-    public void addRelationship(String movieId, String actorId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (a:Actor), (m:Movie) " +
-                    "WHERE a.actorId = $actorId AND m.movieId = $movieId" +
-                    " CREATE (a)-[r:ACTED_IN]->(m) " +
-                    "RETURN type(r);";
-            session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId,
-                    "movieId", movieId)));
-        }
-    }
-
-
-    /**
-     * Checks if there is an actor with actorID already in database
-     * <p>
-     * If actor exist return true else false
-     * </p>
-     *
-     * @param actorId unique for each actor
-     * @return true if the actor exists, false otherwise.
-     */
-    private boolean doesActorExist(String actorId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (a:Actor {actorId: $actorId}) RETURN a";
-            return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId))).hasNext();
-
-        }
-    }
-
-
-    /**
-     * Checks if there is an movie with movieId already in database
-     * <p>
-     * If movieID exist return true else false
-     * </p>
-     *
-     * @param movieId unique for each actor
-     * @return true if the movie exists, false otherwise.
-     */
-    private boolean doesMovieExist(String movieId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (m:Movie {movieId: $movieId}) RETURN m";
-            return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("movieId", movieId))).hasNext();
-
-        }
-    }
-
-    private boolean IsRelatioshipNotUnique(String actorId, String movieId) {
-        try (Session session = Utils.getSession()) {
-            String statementTemplate = "MATCH (a:Actor)-[r:ACTED_IN]->(m:Movie) WHERE a.actorId = $actorId AND m.movieId = $movieId RETURN r;";
-            return session.writeTransaction(tx -> tx.run(statementTemplate, Values.parameters("actorId", actorId, "movieId", movieId))).hasNext();
-
-        }
+    public WriteOutcome addRelationship(Session session, String movieId, String actorId) {
+        String statementTemplate = "OPTIONAL MATCH (a:Actor {actorId: $actorId}) " +
+                "OPTIONAL MATCH (m:Movie {movieId: $movieId}) " +
+                "FOREACH (ignored IN CASE WHEN a IS NOT NULL AND m IS NOT NULL THEN [1] ELSE [] END | " +
+                "    MERGE (a)-[:ACTED_IN]->(m)) " +
+                "RETURN a IS NOT NULL AND m IS NOT NULL AS found";
+        return session.writeTransaction(tx -> {
+            StatementResult result = tx.run(statementTemplate, Values.parameters("actorId", actorId,
+                    "movieId", movieId));
+            boolean found = result.single().get("found").asBoolean();
+            if (!found) {
+                return WriteOutcome.NOT_FOUND;
+            }
+            return result.consume().counters().relationshipsCreated() > 0
+                    ? WriteOutcome.CREATED : WriteOutcome.ALREADY_EXISTS;
+        });
     }
 
 
@@ -318,28 +305,32 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
             // Check if both movieId and actorId are not null and empty
             if ((movieId != null && actorId != null) && (!movieId.isEmpty() && !actorId.isEmpty())) {
+                if (!graph.mayHaveActor(actorId) || !graph.mayHaveMovie(movieId)) {
+                    // Response 404 without a write transaction if the resident graph lacks either
+                    GetResponseStatus(exchange, 404, "Actor/Movie does not exist");
+                    return;
+                }
 
+                WriteOutcome outcome;
+                try (UnitOfWork work = Utils.unitOfWork()) {
+                    outcome = addRelationship(work.session(), movieId, actorId);
+                } catch (Exception e) {
+                    // Not able to add - response 500
+                    GetResponseStatus(exchange, 500, "Relationship ACTED_IN failed to add");
+                    return;
+                }
 
-                // check if given actor and movie Id already exist
-                if (doesActorExist(actorId) && doesMovieExist(movieId)) {
-
+                if (outcome == WriteOutcome.CREATED) {
+                    // Response 200 if relationship ACTED_IN relationship created
+                    graph.addRelationship(actorId, movieId);
+                    entityCache.invalidate(EntityCache.actorKey(actorId));
+                    entityCache.invalidate(EntityCache.movieKey(movieId));
+                    GetResponseStatus(exchange, 200, "Relationship ACTED_IN successfully added");
+                } else if (outcome == WriteOutcome.ALREADY_EXISTS) {
                     // Response 400 if relationship already exist in the database
-                    if (IsRelatioshipNotUnique(actorId, movieId)) {
-                        GetResponseStatus(exchange, 400, "Relationship ACTED_IN already exist");
-                    } else {
-                        try {
-                            // Response 200 if relationship ACTED_IN relationship created
-                            addRelationship(movieId, actorId);
-                            GetResponseStatus(exchange, 200, "Relationship ACTED_IN successfully added");
-                        } catch (IOException e) {
-
-                            // Not able to add - response 500
-                            GetResponseStatus(exchange, 500, "Relationship ACTED_IN failed to add");
-                        }
-                    }
-                }
-                // Response 404 if actor or movie does not exist in database
-                else {
+                    GetResponseStatus(exchange, 400, "Relationship ACTED_IN already exist");
+                } else {
+                    // Response 404 if actor or movie does not exist in database
                     GetResponseStatus(exchange, 404, "Actor/Movie does not exist");
                 }
 
@@ -350,13 +341,114 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
             }
 
         } catch (JSONException e) {
-            e.printStackTrace();
+            Metrics.exception(e);
             // Respond 400  if the JSON format is invalid or missing info
             GetResponseStatus(exchange, 400, "JSON format not valid");
         }
     }
 
 
+    /**
+     * Handle HTTP request for loading many actors, movies and relationships at once. The body is NDJSON, one
+     * object per line, and is read as it streams in rather than buffered; see {@link BulkLoader} for the format.
+     * The optional batchSize parameter sets how many rows go into each transaction.
+     * <p>
+     * Response body reports the number of rows added and the errors of rejected lines, and why the load stopped
+     * if a batch failed or the body broke off; rows of the batches committed before that stay loaded
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    public void bulkLoadHandler(HttpExchange exchange) throws IOException {
+        int batchSize = BulkLoader.DEFAULT_BATCH_SIZE;
+        try {
+            String size = parseQuery(exchange.getRequestURI().getQuery()).get("batchSize");
+            if (size != null) {
+                batchSize = Integer.parseInt(size);
+            }
+        } catch (NumberFormatException e) {
+            batchSize = -1;
+        }
+        if (batchSize <= 0) {
+            sendResponse(exchange, 400, "batchSize must be a positive number");
+            return;
+        }
+
+        try (UnitOfWork work = Utils.unitOfWork();
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            BulkLoader loader = new BulkLoader(graph, entityCache, work.session(), batchSize);
+            Map<String, Object> report = loader.load(reader);
+
+            // 500 if a batch failed to commit or the body broke off, the report still lists what was loaded before it
+            sendResponse(exchange, loader.failed() ? 500 : 200, Utils.toJson(report));
+        } catch (Exception e) {
+            sendResponse(exchange, 500, "Internal server error");
+        }
+    }
+
+
+    /**
+     * Handle HTTP GET request exporting the whole graph
+     * <p>
+     * Response body is NDJSON in the format {@link BulkLoader} reads: every actor, then every movie, then every
+     * ACTED_IN relationship, one object per line, so an export can be loaded into another database as is. Records
+     * are written as the driver streams them in and the response goes out chunked, so memory use does not depend on
+     * the size of the graph and a slow client holds the reads back rather than having them buffered. An export
+     * that fails halfway is cut off without the final chunk, so a client cannot take it for a complete one.
+     * </p>
+     * The three scans are not one snapshot: writes made during the export may be missing from it or appear in part.
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    public void exportHandler(HttpExchange exchange) throws IOException {
+        try (UnitOfWork work = Utils.readUnitOfWork();
+             JsonWriter out = JsonWriter.ndjson(exchange)) {
+            Session session = work.session();
+            StatementResult actors = session.run("MATCH (a:Actor) RETURN a.actorId AS actorId, a.name AS name");
+            while (actors.hasNext()) {
+                Record record = actors.next();
+                out.beginObject()
+                        .name("type").value("actor")
+                        .name("actorId").value(record.get("actorId"))
+                        .name("name").value(record.get("name"))
+                        .endObject().newline();
+            }
+
+            StatementResult movies = session.run("MATCH (m:Movie) " +
+                    "RETURN m.movieId AS movieId, m.name AS name, m.genre AS genre");
+            while (movies.hasNext()) {
+                Record record = movies.next();
+                out.beginObject()
+                        .name("type").value("movie")
+                        .name("movieId").value(record.get("movieId"))
+                        .name("name").value(record.get("name"))
+                        .name("genre").value(record.get("genre"))
+                        .endObject().newline();
+            }
+
+            StatementResult relationships = session.run("MATCH (a:Actor)-[:ACTED_IN]->(m:Movie) " +
+                    "RETURN a.actorId AS actorId, m.movieId AS movieId");
+            while (relationships.hasNext()) {
+                Record record = relationships.next();
+                out.beginObject()
+                        .name("type").value("relationship")
+                        .name("actorId").value(record.get("actorId"))
+                        .name("movieId").value(record.get("movieId"))
+                        .endObject().newline();
+            }
+            out.finish();
+        } catch (Exception e) {
+            Metrics.exception(e);
+            // once the first chunk is out the writer has already cut the response off
+            if (exchange.getResponseCode() < 0) {
+                sendResponse(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
+
     /**
      * Handle HTTP GET request getting the actor
      * IT fetches actor Based on actorID parameter, if actorId matches then it returns actorId, name, and the
@@ -378,53 +470,51 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 // Validate that the actorId parameter is is not null and empty
                 if (actorId == null || actorId.isEmpty()) {
                     sendResponse(request, 400, "actorId is required");
+                    return;
+                }
+                String cacheKey = EntityCache.actorKey(actorId);
+                byte[] cached = entityCache.get(cacheKey);
+                if (cached != null) {
+                    JsonWriter.send(request, 200, cached);
+                } else if (!graph.mayHaveActor(actorId)) {
+                    // unknown to the resident graph, which holds every actor while it is in sync with Neo4j
+                    sendResponse(request, 404, "Actor not found");
                 } else {
                     // Neo4j query to get actor details and  movies they have ACTED_IN
-
-                    try (Session session = Utils.getSession()) {
-                        String queryString = "MATCH (a:Actor) " +
-                                "WHERE a.actorId = $actorId " +
-                                "OPTIONAL MATCH (a)-[r:ACTED_IN]->(m:Movie) " +
-                                "RETURN a.name as name, a.actorId as actorId, collect(m.name) as movies";
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("actorId", actorId);
-
-                        StatementResult result = session.run(queryString, parameters);
-
-
+                    long stamp = entityCache.stamp(cacheKey);
+                    String queryString = "MATCH (a:Actor) " +
+                            "WHERE a.actorId = $actorId " +
+                            "OPTIONAL MATCH (a)-[r:ACTED_IN]->(m:Movie) " +
+                            "RETURN a.name as name, a.actorId as actorId, collect(m.name) as movies";
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("actorId", actorId);
+
+                    // keyed by the stamp too, so a read started before the last write is not shared with a
+                    // request that would then cache its result as current
+                    CompletionStage<List<Record>> read = reads.run(readKey("getActor", actorId, stamp),
+                            () -> Utils.readAsync(queryString, parameters));
+                    respondAsync(request, read, records -> {
                         // If actor not found in database - response 404
-                        if (!result.hasNext()) {
+                        if (records.isEmpty()) {
                             sendResponse(request, 404, "Actor not found");
                         } else {
-                            List<String> movies = new ArrayList<>();
-                            String actorName = null;
-
-                            while (result.hasNext()) {
-                                Record record = result.next();
-                                actorName = record.get("name").asString();
-                                List<Object> movieObjects = record.get("movies").asList();
-                                for (Object obj : movieObjects) {
-                                    movies.add(obj.toString());
-                                }
+                            // encoded straight from the record, the cache keeps the bytes
+                            Record record = records.get(0);
+                            byte[] json;
+                            try (JsonWriter out = JsonWriter.buffered()) {
+                                out.beginObject()
+                                        .name("actorId").value(actorId)
+                                        .name("name").value(record.get("name").asString())
+                                        .name("movies").strings(record.get("movies"))
+                                        .endObject();
+                                json = out.toByteArray();
                             }
 
-                            Map<String, Object> response = new HashMap<>();
-                            response.put("actorId", actorId);
-                            response.put("name", actorName);
-                            response.put("movies", movies);
-
                             // actor successfully found response 200
-                            sendResponse(request, 200, Utils.toJson(response));
-
-
+                            entityCache.put(cacheKey, json, stamp);
+                            JsonWriter.send(request, 200, json);
                         }
-
-                    }
-                    // unexpected error 500 response
-                    catch (Exception e) {
-                        sendResponse(request, 500, "Internal server error");
-                    }
-
+                    });
                 }
             } else {
                 // Respond 400  if the JSON format is invalid or missing info
@@ -457,49 +547,46 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
                 if (movieId == null || movieId.isEmpty()) {
                     sendResponse(request, 400, "movieId is required");
+                    return;
+                }
+                String cacheKey = EntityCache.movieKey(movieId);
+                byte[] cached = entityCache.get(cacheKey);
+                if (cached != null) {
+                    JsonWriter.send(request, 200, cached);
+                } else if (!graph.mayHaveMovie(movieId)) {
+                    sendResponse(request, 404, "Movie not found");
                 } else {
-                    try (Session session = Utils.getSession()) {
-                        String queryString = "MATCH (m:Movie) " +
-                                "WHERE m.movieId = $movieId " +
-                                "OPTIONAL MATCH (m)<-[r:ACTED_IN]-(a:Actor) " +
-                                "RETURN m.name as name, m.movieId as movieId, collect(a.name) as actors";
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("movieId", movieId);
-
-                        StatementResult result = session.run(queryString, parameters);
-
+                    long stamp = entityCache.stamp(cacheKey);
+                    String queryString = "MATCH (m:Movie) " +
+                            "WHERE m.movieId = $movieId " +
+                            "OPTIONAL MATCH (m)<-[r:ACTED_IN]-(a:Actor) " +
+                            "RETURN m.name as name, m.movieId as movieId, collect(a.name) as actors";
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("movieId", movieId);
+
+                    CompletionStage<List<Record>> read = reads.run(readKey("getMovie", movieId, stamp),
+                            () -> Utils.readAsync(queryString, parameters));
+                    respondAsync(request, read, records -> {
                         // If movieId not found in database - response 404
-                        if (!result.hasNext()) {
+                        if (records.isEmpty()) {
                             sendResponse(request, 404, "Movie not found");
                         } else {
-                            List<String> actors = new ArrayList<>();
-                            String movieName = null;
-
-                            while (result.hasNext()) {
-                                Record record = result.next();
-                                movieName = record.get("name").asString();
-                                List<Object> actorObjects = record.get("actors").asList();
-                                for (Object obj : actorObjects) {
-                                    actors.add(obj.toString());
-                                }
-
+                            // encoded straight from the record, the cache keeps the bytes
+                            Record record = records.get(0);
+                            byte[] json;
+                            try (JsonWriter out = JsonWriter.buffered()) {
+                                out.beginObject()
+                                        .name("movieId").value(movieId)
+                                        .name("name").value(record.get("name").asString())
+                                        .name("actors").strings(record.get("actors"))
+                                        .endObject();
+                                json = out.toByteArray();
                             }
 
-                            Map<String, Object> response = new HashMap<>();
-                            response.put("movieId", movieId);
-                            response.put("name", movieName);
-                            response.put("actors", actors);
-
-                            sendResponse(request, 200, Utils.toJson(response));
-
-
+                            entityCache.put(cacheKey, json, stamp);
+                            JsonWriter.send(request, 200, json);
                         }
-
-                    } catch (Exception e) {
-                        // unexpected error 500 response
-                        sendResponse(request, 500, "Internal server error");
-                    }
-
+                    });
                 }
             } else {
                 // Respond 400  if the JSON format is invalid or missing info
@@ -541,27 +628,33 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
 
                     sendResponse(request, 404, "actorId and movieId are required");
+                } else if (!graph.mayHaveActor(actorId) || !graph.mayHaveMovie(movieId)) {
+                    sendResponse(request, 404, "Movie/Actor not found or relationship does not exist");
                 } else {
-                    try (Session session = Utils.getSession()) {
-                        // query to check if relationship exist between actor and movie node
-                        String queryString = "MATCH (a:Actor)-[r:ACTED_IN]->(m:Movie) " +
-                                "WHERE a.actorId = $actorId AND m.movieId = $movieId " +
-                                "RETURN count(r) as relationship";
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("actorId", actorId);
-                        parameters.put("movieId", movieId);
-
-                        StatementResult result = session.run(queryString, parameters);
-
-                        if (result.hasNext()) {
+                    // query to check if relationship exist between actor and movie node
+                    String queryString = "MATCH (a:Actor)-[r:ACTED_IN]->(m:Movie) " +
+                            "WHERE a.actorId = $actorId AND m.movieId = $movieId " +
+                            "RETURN count(r) as relationship";
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("actorId", actorId);
+                    parameters.put("movieId", movieId);
+
+                    CompletionStage<List<Record>> read = reads.run(
+                            readKey("hasRelationship", actorId, movieId, entityCache.stamp()),
+                            () -> Utils.readAsync(queryString, parameters));
+                    respondAsync(request, read, records -> {
+                        if (!records.isEmpty()) {
                             // if relatioship exist returns greater than 0 value
-                            boolean hasRelationship = result.next().get("relationship").asInt() > 0;
+                            boolean hasRelationship = records.get(0).get("relationship").asInt() > 0;
                             if (hasRelationship) {
-                                Map<String, Object> response = new HashMap<>();
-                                response.put("actorId", actorId);
-                                response.put("movieId", movieId);
-                                response.put("hasRelationship", hasRelationship);
-                                sendResponse(request, 200, Utils.toJson(response));
+                                try (JsonWriter out = JsonWriter.response(request, 200)) {
+                                    out.beginObject()
+                                            .name("actorId").value(actorId)
+                                            .name("movieId").value(movieId)
+                                            .name("hasRelationship").value(true)
+                                            .endObject()
+                                            .finish();
+                                }
                             } else {
                                 // 404 , if actor/movie does not exist or relationship does not exist
                                 sendResponse(request, 404, "Movie/Actor not found or relationship does not exist");
@@ -570,10 +663,7 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                             // response 404 if not relationship exist
                             sendResponse(request, 404, "No relationship found");
                         }
-                    } catch (Exception e) {
-                        // 500 response
-                        sendResponse(request, 500, "Internal server error");
-                    }
+                    });
                 }
             } else {
 
@@ -592,6 +682,9 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * Computes the bacon number from given actorID parameter to Kevin bacon
      * nm0000102. Determines the shortest path from given actor to kevin Bacon
      * Returns the path divide by 2 as dividing 2 ensure we get the path only from actor to actor
+     * <p>
+     * The optional center parameter measures from another actor instead of Kevin Bacon, see {@link CentreRegistry}
+     * </p>
      *
      * @param exchange HttpExchange object which has  response and request value
      * @throws IOException to ensure if there  input or output exception occurs during handling of the request
@@ -605,33 +698,49 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 String body = request.getRequestURI().getQuery();
                 Map<String, String> params = parseQuery(body);
                 String actorId = params.get("actorId");
+                String centre = params.containsKey("center") ? params.get("center") : KEVIN_BACON_ID;
 
 
                 // if actorID is empty or null then response 400 for missing information
                 if (actorId == null || actorId.isEmpty()) {
                     sendResponse(request, 400, "actorId is required");
+                } else if (!centres.allowed(centre)) {
+                    sendResponse(request, 400, "center is not one of the configured hubs");
+                } else if (graph.inSync()) {
+                    // precomputed distance from the centre, no search needed
+                    DistanceTable table = centres.table(centre);
+                    int baconNumber = table == null ? -1 : table.distance(actorId);
+                    if (table == null) {
+                        sendResponse(request, 404, "Center actor not found");
+                    } else if (baconNumber < 0) {
+                        sendResponse(request, 404, noPathMessage(centre));
+                    } else {
+                        sendResponse(request, 200, "Bacon Number: " + baconNumber);
+                    }
                 } else {
-                    try (Session session = Utils.getSession()) {
-                        // query to find the shortest path from given actor to kevin bacon
-                        String queryString = "MATCH (a:Actor {actorId: $actorId}), (d:Actor {actorId: 'nm0000102'}) "
-                                + "RETURN CASE "
-                                + "    WHEN a.actorId = d.actorId THEN 0 "
-                                + "    ELSE length(shortestPath((a)-[:ACTED_IN*]-(d))) "
-                                + "END AS baconNumber";
-
+                    // query to find the shortest path from given actor to kevin bacon
+                    String queryString = "MATCH (a:Actor {actorId: $actorId}), (d:Actor {actorId: $centre}) "
+                            + "RETURN CASE "
+                            + "    WHEN a.actorId = d.actorId THEN 0 "
+                            + "    ELSE length(shortestPath((a)-[:ACTED_IN*]-(d))) "
+                            + "END AS baconNumber";
 
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("actorId", actorId);
 
-                        StatementResult result = session.run(queryString, parameters);
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("actorId", actorId);
+                    parameters.put("centre", centre);
 
-                        if (result.hasNext()) {
+                    CompletionStage<List<Record>> read = reads.run(
+                            readKey("computeBaconNumber", actorId, centre, entityCache.stamp()),
+                            () -> Utils.readAsync(queryString, parameters));
+                    respondAsync(request, read, records -> {
+                        if (!records.isEmpty()) {
 
-                            Record record = result.next();
+                            Record record = records.get(0);
 
                             // if there is no given actor or actor has not path to kevin bacon response 404
                             if (record.get("baconNumber").isNull()) {
-                                sendResponse(request, 404, "Actor not found or no path to Kevin Bacon");
+                                sendResponse(request, 404, noPathMessage(centre));
                             } else {
 
                                 // if actor path is found response 200 with their bacon number
@@ -642,12 +751,9 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
                         } else {
                             // if there is no given actor or actor has not path to kevin bacon response 404
-                            sendResponse(request, 404, "Actor not found or no path to Kevin Bacon");
+                            sendResponse(request, 404, noPathMessage(centre));
                         }
-                    } catch (Exception e) {
-                        // fail and server error response 500
-                        sendResponse(request, 500, "Internal server error");
-                    }
+                    });
                 }
             } else {
                 // response 400 for JSON format issue or info missing
@@ -660,6 +766,111 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
     }
 
 
+    /**
+     * Handle HTTP POST request getting the bacon numbers of many actors at once
+     * <p>
+     * Request body is {"actorIds": [...]}. Response body is {"baconNumbers": [{"actorId", "baconNumber"}...]} in
+     * request order, baconNumber being null for an actor that is unknown or has no path to Kevin Bacon. While the
+     * graph is in sync every number comes from the precomputed distance table; otherwise the actors are
+     * resolved BACON_NUMBER_BATCH at a time by one UNWIND query each, and every batch is streamed as it returns.
+     * The optional center query parameter measures from another actor, as for computeBaconNumber.
+     * </p>
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    public void computeBaconNumbersHandler(HttpExchange request) throws IOException {
+        List<String> actorIds = new ArrayList<>();
+        String centre = parseQuery(request.getRequestURI().getQuery()).getOrDefault("center", KEVIN_BACON_ID);
+        if (!centres.allowed(centre)) {
+            sendResponse(request, 400, "center is not one of the configured hubs");
+            return;
+        }
+        try {
+            JSONArray ids = new JSONObject(RequestBodyReader(request.getRequestBody())).getJSONArray("actorIds");
+            for (int i = 0; i < ids.length(); i++) {
+                actorIds.add(ids.getString(i));
+            }
+        } catch (JSONException e) {
+            sendResponse(request, 400, "actorIds must be an array of actorIds");
+            return;
+        }
+        if (actorIds.isEmpty() || actorIds.size() > MAX_BACON_NUMBER_ACTORS) {
+            sendResponse(request, 400, "actorIds must hold between 1 and " + MAX_BACON_NUMBER_ACTORS + " actorIds");
+            return;
+        }
+        sendBaconNumbers(request, actorIds, centre);
+    }
+
+
+    /**
+     * Streams the bacon number of every actor, from the distance table or from batched queries
+     */
+    private void sendBaconNumbers(HttpExchange request, List<String> actorIds, String centre) throws IOException {
+        if (graph.inSync()) {
+            DistanceTable table = centres.table(centre);
+            if (table == null) {
+                sendResponse(request, 404, "Center actor not found");
+                return;
+            }
+            int[] baconNumbers = table.distances(actorIds);
+            try (JsonWriter out = JsonWriter.response(request, 200)) {
+                out.beginObject().name("baconNumbers").beginArray();
+                for (int i = 0; i < baconNumbers.length; i++) {
+                    writeBaconNumber(out, actorIds.get(i), baconNumbers[i]);
+                }
+                out.endArray().endObject().finish();
+            }
+            return;
+        }
+
+        String queryString = "UNWIND $actorIds AS actorId "
+                + "OPTIONAL MATCH (a:Actor {actorId: actorId}) "
+                + "OPTIONAL MATCH (d:Actor {actorId: $centre}) "
+                + "RETURN actorId, CASE "
+                + "    WHEN a IS NULL OR d IS NULL THEN null "
+                + "    WHEN a = d THEN 0 "
+                + "    ELSE length(shortestPath((a)-[:ACTED_IN*]-(d))) / 2 "
+                + "END AS baconNumber";
+        try (UnitOfWork work = Utils.readUnitOfWork();
+             JsonWriter out = JsonWriter.response(request, 200)) {
+            Session session = work.session();
+            out.beginObject().name("baconNumbers").beginArray();
+            for (int from = 0; from < actorIds.size(); from += BACON_NUMBER_BATCH) {
+                Map<String, Object> parameters = new HashMap<>();
+                int to = Math.min(actorIds.size(), from + BACON_NUMBER_BATCH);
+                parameters.put("actorIds", actorIds.subList(from, to));
+                parameters.put("centre", centre);
+
+                StatementResult result = session.run(queryString, parameters);
+                while (result.hasNext()) {
+                    Record record = result.next();
+                    Value baconNumber = record.get("baconNumber");
+                    writeBaconNumber(out, record.get("actorId").asString(),
+                            baconNumber.isNull() ? -1 : baconNumber.asInt());
+                }
+            }
+            out.endArray().endObject().finish();
+        } catch (Exception e) {
+            // only answerable while nothing was streamed yet, otherwise the response is cut short
+            if (request.getResponseCode() < 0) {
+                sendResponse(request, 500, "Internal server error");
+            }
+        }
+    }
+
+
+    private static void writeBaconNumber(JsonWriter out, String actorId, int baconNumber) throws IOException {
+        out.beginObject().name("actorId").value(actorId).name("baconNumber");
+        if (baconNumber < 0) {
+            out.value((String) null);
+        } else {
+            out.value(baconNumber);
+        }
+        out.endObject();
+    }
+
+
     /**
      * Handle HTTP GET request getting the bacon path
      * Computes the bacon path from given actorID parameter to Kevin bacon
@@ -667,6 +878,9 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * Returns the path divide by 2 as dividing 2 ensure we get the path only from actor to actor
      *
      * Response body gives the shortest path from actor to Kevin bacon return all the actor within those path
+     * <p>
+     * The optional center parameter measures from another actor instead of Kevin Bacon, see {@link CentreRegistry}
+     * </p>
      *
      * @param exchange HttpExchange object which has  response and request value
      * @throws IOException to ensure if there  input or output exception occurs during handling of the request
@@ -678,44 +892,57 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 String body = request.getRequestURI().getQuery();
                 Map<String, String> params = parseQuery(body);
                 String actorId = params.get("actorId");
+                String centre = params.containsKey("center") ? params.get("center") : KEVIN_BACON_ID;
 
 
                 // if actorID is empty or null then response 400 for missing information
                 if (actorId == null || actorId.isEmpty()) {
                     sendResponse(request, 400, "actorId is required");
+                } else if (!centres.allowed(centre)) {
+                    sendResponse(request, 400, "center is not one of the configured hubs");
+                } else if (graph.inSync()) {
+                    // follow the precomputed predecessor chain towards the centre
+                    DistanceTable table = centres.table(centre);
+                    List<String> baconPath = table == null ? null : table.path(actorId);
+                    if (table == null) {
+                        sendResponse(request, 404, "Center actor not found");
+                    } else if (baconPath == null) {
+                        sendResponse(request, 404, noPathMessage(centre));
+                    } else {
+                        sendBaconPath(request, baconPath);
+                    }
                 } else {
-                    try (Session session = Utils.getSession()) {
-
-
-                        // query to find the shortest path from given actor to kevin bacon and get the actorID list
-                        String queryString = "MATCH (a:Actor {actorId: $actorId}), (d:Actor {actorId: 'nm0000102'}) "
-                                + "WITH a, d "
-                                + "RETURN CASE "
-                                + "    WHEN a.actorId = d.actorId THEN ['nm0000102'] "
-                                + "    ELSE CASE "
-                                + "        WHEN shortestPath((a)-[:ACTED_IN*]-(d)) IS NULL THEN [] "
-                                + "        ELSE [m IN nodes(shortestPath((a)-[:ACTED_IN*]-(d))) WHERE m.actorId IS NOT NULL | m.actorId] "
-                                + "    END "
-                                + "END AS baconPath";
-
-
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("actorId", actorId);
-
-                        StatementResult result = session.run(queryString, parameters);
-
-                        if (result.hasNext()) {
-                            List<String> baconPath = result.next().get("baconPath").asList(Value::asString);
+                    // query to find the shortest path from given actor to kevin bacon and get the actorID list
+                    String queryString = "MATCH (a:Actor {actorId: $actorId}), (d:Actor {actorId: $centre}) "
+                            + "WITH a, d "
+                            + "RETURN CASE "
+                            + "    WHEN a.actorId = d.actorId THEN [d.actorId] "
+                            + "    ELSE CASE "
+                            + "        WHEN shortestPath((a)-[:ACTED_IN*]-(d)) IS NULL THEN [] "
+                            + "        ELSE [m IN nodes(shortestPath((a)-[:ACTED_IN*]-(d))) WHERE m.actorId IS NOT NULL | m.actorId] "
+                            + "    END "
+                            + "END AS baconPath";
+
+
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("actorId", actorId);
+                    parameters.put("centre", centre);
+
+                    CompletionStage<List<Record>> read = reads.run(
+                            readKey("computeBaconPath", actorId, centre, entityCache.stamp()),
+                            () -> Utils.readAsync(queryString, parameters));
+                    respondAsync(request, read, records -> {
+                        if (!records.isEmpty()) {
+                            List<String> baconPath = records.get(0).get("baconPath").asList(Value::asString);
 
 
                             // If it's empty then the Actor has no path to Kevin Bacon
                             if (baconPath.isEmpty()) {
-                                sendResponse(request, 404, "Actor not found or no path to Kevin Bacon");
+                                sendResponse(request, 404, noPathMessage(centre));
 
                             } else {
                                 // if actor path is found response 200 and all the actorID path list
-                                String jsonResponse = "{\"baconPath\": " + baconPath.toString() + "}";
-                                sendResponse(request, 200, jsonResponse);
+                                sendBaconPath(request, baconPath);
                             }
 
 
@@ -723,10 +950,168 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
                         // if there is no given actor or actor has not path to kevin bacon response 404
                         else {
-                            sendResponse(request, 404, "Actor not found or no path to Kevin Bacon");
+                            sendResponse(request, 404, noPathMessage(centre));
+                        }
+                    });
+                }
+            } else {
+                // response 400 for JSON format issue or info missing
+                sendResponse(request, 400, "Invalid request method");
+            }
+        } catch (Exception e) {
+            // response 400 for JSON format issue or info missing
+            sendResponse(request, 400, "Invalid request format");
+        }
+    }
+
+
+    /**
+     * Handle HTTP GET request getting the degrees of separation between any two actors
+     * Counts the movies on the shortest chain of co-stars from actor "from" to actor "to"
+     * <p>
+     * Response body gives from, to and the number of degrees
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    public void computeDegreesHandler(HttpExchange request) throws IOException {
+        try {
+            if ("GET".equals(request.getRequestMethod())) {
+                // parameters from and to
+                String body = request.getRequestURI().getQuery();
+                Map<String, String> params = parseQuery(body);
+                String fromId = params.get("from");
+                String toId = params.get("to");
+
+
+                // if either actorID is empty or null then response 400 for missing information
+                if (fromId == null || fromId.isEmpty() || toId == null || toId.isEmpty()) {
+                    sendResponse(request, 400, "from and to are required");
+                } else {
+                    int degrees = -1;
+                    if (graph.inSync()) {
+                        // bidirectional search over the resident co-star graph
+                        degrees = graph.distance(fromId, toId);
+                    } else {
+                        try (UnitOfWork work = Utils.readUnitOfWork()) {
+                            Session session = work.session();
+                            String queryString = "MATCH (a:Actor {actorId: $from}), (b:Actor {actorId: $to}) "
+                                    + "RETURN CASE "
+                                    + "    WHEN a.actorId = b.actorId THEN 0 "
+                                    + "    ELSE length(shortestPath((a)-[:ACTED_IN*]-(b))) "
+                                    + "END AS degrees";
+
+                            Map<String, Object> parameters = new HashMap<>();
+                            parameters.put("from", fromId);
+                            parameters.put("to", toId);
+
+                            StatementResult result = session.run(queryString, parameters);
+                            if (result.hasNext()) {
+                                Value value = result.next().get("degrees");
+                                if (!value.isNull()) {
+                                    // the path alternates actor and movie nodes
+                                    degrees = value.asInt() / 2;
+                                }
+                            }
+                        } catch (Exception e) {
+                            sendResponse(request, 500, "Internal server error");
+                            return;
+                        }
+                    }
+
+                    if (degrees < 0) {
+                        // either actor missing or no chain of co-stars between them
+                        sendResponse(request, 404, "Actor not found or no path between actors");
+                    } else {
+                        try (JsonWriter out = JsonWriter.response(request, 200)) {
+                            out.beginObject()
+                                    .name("from").value(fromId)
+                                    .name("to").value(toId)
+                                    .name("degrees").value(degrees)
+                                    .endObject()
+                                    .finish();
+                        }
+                    }
+                }
+            } else {
+                // response 400 for JSON format issue or info missing
+                sendResponse(request, 400, "Invalid request method");
+            }
+        } catch (Exception e) {
+            // response 400 for JSON format issue or info missing
+            sendResponse(request, 400, "Invalid request format");
+        }
+    }
+
+
+    /**
+     * Handle HTTP GET request getting the shortest chain of co-stars between any two actors
+     * <p>
+     * Response body gives from, to and the actorIds on the path, both ends included
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    public void computeDegreesPathHandler(HttpExchange request) throws IOException {
+        try {
+            if ("GET".equals(request.getRequestMethod())) {
+                // parameters from and to
+                String body = request.getRequestURI().getQuery();
+                Map<String, String> params = parseQuery(body);
+                String fromId = params.get("from");
+                String toId = params.get("to");
+
+
+                // if either actorID is empty or null then response 400 for missing information
+                if (fromId == null || fromId.isEmpty() || toId == null || toId.isEmpty()) {
+                    sendResponse(request, 400, "from and to are required");
+                } else {
+                    List<String> degreesPath = null;
+                    if (graph.inSync()) {
+                        // bidirectional search over the resident co-star graph
+                        degreesPath = graph.path(fromId, toId);
+                    } else {
+                        try (UnitOfWork work = Utils.readUnitOfWork()) {
+                            Session session = work.session();
+                            String queryString = "MATCH (a:Actor {actorId: $from}), (b:Actor {actorId: $to}) "
+                                    + "WITH a, b "
+                                    + "RETURN CASE "
+                                    + "    WHEN a.actorId = b.actorId THEN [a.actorId] "
+                                    + "    ELSE CASE "
+                                    + "        WHEN shortestPath((a)-[:ACTED_IN*]-(b)) IS NULL THEN [] "
+                                    + "        ELSE [n IN nodes(shortestPath((a)-[:ACTED_IN*]-(b))) WHERE n.actorId IS NOT NULL | n.actorId] "
+                                    + "    END "
+                                    + "END AS path";
+
+                            Map<String, Object> parameters = new HashMap<>();
+                            parameters.put("from", fromId);
+                            parameters.put("to", toId);
+
+                            StatementResult result = session.run(queryString, parameters);
+                            if (result.hasNext()) {
+                                List<String> found = result.next().get("path").asList(Value::asString);
+                                if (!found.isEmpty()) {
+                                    degreesPath = found;
+                                }
+                            }
+                        } catch (Exception e) {
+                            sendResponse(request, 500, "Internal server error");
+                            return;
+                        }
+                    }
+
+                    if (degreesPath == null) {
+                        // either actor missing or no chain of co-stars between them
+                        sendResponse(request, 404, "Actor not found or no path between actors");
+                    } else {
+                        try (JsonWriter out = JsonWriter.response(request, 200)) {
+                            out.beginObject()
+                                    .name("from").value(fromId)
+                                    .name("to").value(toId)
+                                    .name("path").array(degreesPath)
+                                    .endObject()
+                                    .finish();
                         }
-                    } catch (Exception e) {
-                        sendResponse(request, 500, "Internal server error");
                     }
                 }
             } else {
@@ -742,6 +1127,11 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
 
     /**
      * Handle HTTP GET request getting the movies based on genre
+     * <p>
+     * genre takes one or more comma separated genres, matched all together (op=and, the default) or any of
+     * them (op=or). Movies come in movieId order, limit at a time; the response's next value is passed back as
+     * after to get the following page. Served from the genre index while the co-star graph is in sync.
+     * </p>
      *
      * @param exchange HttpExchange object which has  response and request value
      * @throws IOException to ensure if there  input or output exception occurs during handling of the request
@@ -753,41 +1143,69 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 // requires parameter genre
                 String body = request.getRequestURI().getQuery();
                 Map<String, String> params = parseQuery(body);
-                String genre = params.get("genre");
-
+                String[] genres = ActorLeaderboard.split(params.get("genre"));
+                String op = params.containsKey("op") ? params.get("op") : "and";
+                String after = params.get("after");
+                if (after != null && after.isEmpty()) {
+                    after = null;
+                }
+                int limit;
+                try {
+                    limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_PAGE_SIZE;
+                } catch (NumberFormatException e) {
+                    limit = -1;
+                }
 
                 // response 400 to ensure parameter is not null and empty
-                if (genre == null || genre.isEmpty()) {
+                if (genres.length == 0) {
                     sendResponse(request, 400, "genre is required");
+                } else if (!"and".equals(op) && !"or".equals(op)) {
+                    sendResponse(request, 400, "op must be and or or");
+                } else if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+                    sendResponse(request, 400, "limit must be between 1 and " + MAX_PAGE_SIZE);
                 } else {
-                    try (Session session = Utils.getSession()) {
-                        // query check and returns a list of movies based on the parameter genre
-                        String queryString = "MATCH (m:Movie) " +
-                                "WHERE $genre IN m.genre " +
-                                "RETURN m.name as name, m.movieId as movieId";
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("genre", genre);
-
-                        StatementResult result = session.run(queryString, parameters);
-
-
-                        // response 404 if no movies found for given genre
-                        if (!result.hasNext()) {
-                            sendResponse(request, 404, "No movies found for the given genre");
-                        } else {
-                            List<Map<String, String>> movies = new ArrayList<>();
+                    boolean all = "and".equals(op);
+                    List<String[]> page;
+                    if (graph.inSync()) {
+                        page = genreIndex.page(genres, all, after, limit);
+                    } else {
+                        try (UnitOfWork work = Utils.readUnitOfWork()) {
+                            Session session = work.session();
+                            // query check and returns a page of movies based on the parameter genre
+                            // STARTS WITH '' only holds for a string, a null or list genre matches no genre
+                            String queryString = "MATCH (m:Movie) " +
+                                    "WITH m, CASE WHEN m.genre STARTS WITH '' " +
+                                    "THEN [g IN split(m.genre, ',') | trim(g)] ELSE [] END AS movieGenres " +
+                                    "WHERE ($all AND all(g IN $genres WHERE g IN movieGenres) " +
+                                    "OR NOT $all AND any(g IN $genres WHERE g IN movieGenres)) " +
+                                    "AND ($after IS NULL OR m.movieId > $after) " +
+                                    "RETURN m.name as name, m.movieId as movieId " +
+                                    "ORDER BY m.movieId LIMIT $limit";
+                            Map<String, Object> parameters = new HashMap<>();
+                            parameters.put("genres", Arrays.asList(genres));
+                            parameters.put("all", all);
+                            parameters.put("after", after);
+                            parameters.put("limit", limit + 1);
+
+                            page = new ArrayList<>();
+                            StatementResult result = session.run(queryString, parameters);
                             while (result.hasNext()) {
                                 Record record = result.next();
-                                Map<String, String> movie = new HashMap<>();
-                                movie.put("name", record.get("name").asString());
-                                movie.put("movieId", record.get("movieId").asString());
-                                movies.add(movie);
+                                page.add(new String[]{record.get("movieId").asString(),
+                                        record.get("name").isNull() ? null : record.get("name").asString()});
                             }
-                            // response 200 for successfully finding at least one movie for given genre
-                            sendResponse(request, 200, movies.toString());
+                        } catch (Exception e) {
+                            sendResponse(request, 500, "Internal server error");
+                            return;
                         }
-                    } catch (Exception e) {
-                        sendResponse(request, 500, "Internal server error");
+                    }
+
+                    // response 404 if no movies found for given genre
+                    if (page.isEmpty() && after == null) {
+                        sendResponse(request, 404, "No movies found for the given genre");
+                    } else {
+                        // response 200 for successfully finding at least one movie for given genre
+                        sendMoviePage(request, page, limit);
                     }
                 }
             } else {
@@ -801,6 +1219,65 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
     }
 
 
+    /**
+     * Streams a page of movies as {"movies": [{"movieId", "name"}...], "next": cursor}, next only being present
+     * when the page holds the extra entry that shows more movies follow
+     */
+    private static void sendMoviePage(HttpExchange request, List<String[]> page, int limit) throws IOException {
+        try (JsonWriter out = JsonWriter.response(request, 200)) {
+            out.beginObject().name("movies").beginArray();
+            int count = Math.min(limit, page.size());
+            for (int i = 0; i < count; i++) {
+                out.beginObject()
+                        .name("movieId").value(page.get(i)[0])
+                        .name("name").value(page.get(i)[1])
+                        .endObject();
+            }
+            out.endArray();
+            if (page.size() > limit) {
+                out.name("next").value(page.get(limit - 1)[0]);
+            }
+            out.endObject().finish();
+        }
+    }
+
+
+    private static String noPathMessage(String centre) {
+        return "Actor not found or no path to " + (KEVIN_BACON_ID.equals(centre) ? "Kevin Bacon" : centre);
+    }
+
+
+    /**
+     * Sends {"baconPath": [actorId...]}, from the requested actor to the centre
+     */
+    private static void sendBaconPath(HttpExchange request, List<String> baconPath) throws IOException {
+        try (JsonWriter out = JsonWriter.response(request, 200)) {
+            out.beginObject().name("baconPath").array(baconPath).endObject().finish();
+        }
+    }
+
+
+    /**
+     * Sends {key: [{"name", "totalMovies"}...]}, plus each actorId if withIds is set
+     */
+    private static void sendActors(HttpExchange exchange, String key, List<Map<String, Object>> actors,
+                                   boolean withIds) throws IOException {
+        try (JsonWriter out = JsonWriter.response(exchange, 200)) {
+            out.beginObject().name(key).beginArray();
+            for (Map<String, Object> actor : actors) {
+                out.beginObject();
+                if (withIds) {
+                    out.name("actorId").value((String) actor.get("actorId"));
+                }
+                out.name("name").value((String) actor.get("name"))
+                        .name("totalMovies").value(((Number) actor.get("totalMovies")).longValue())
+                        .endObject();
+            }
+            out.endArray().endObject().finish();
+        }
+    }
+
+
     /**
      * Handle getting at most 10 actors who has the the relationship of most ACTED_IN in order
      *
@@ -817,7 +1294,18 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 }
 
 
-                try (Session session = Utils.getSession()) {
+                if (graph.inSync()) {
+                    List<Map<String, Object>> actorInfo = leaderboard.top(10, null);
+                    if (actorInfo.isEmpty()) {
+                        sendResponse(exchange, 404, "No actors found");
+                    } else {
+                        sendActors(exchange, "Top 10 Actors", actorInfo, false);
+                    }
+                    return;
+                }
+
+                try (UnitOfWork work = Utils.readUnitOfWork()) {
+                    Session session = work.session();
                     // query to get the actor who has acted_IN relationship with the most movies
                     // limit to 10 actors
                     String queryString = "MATCH (a:Actor)-[r:ACTED_IN]-> (m:Movie) " +
@@ -832,22 +1320,18 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                     if (!result.hasNext()) {
                         sendResponse(exchange, 404, "No actors found");
                     } else {
-                        Map<String, Object> response = new HashMap<>();
-                        List<Map<String, Object>> actorInfo = new ArrayList<>();
-
-
-                        while (result.hasNext()) {
-                            Record record = result.next();
-                            Map<String, Object> m = new HashMap<>();
-                            m.put("name", record.get("name").asString());
-                            m.put("totalMovies", record.get("totalMovies").asInt());
-                            actorInfo.add(m);
-
-                        }
-
                         // response 200 , found at least 1 or more actor who have ACTED_IN relationship
-                        response.put("Top 10 Actors", actorInfo);
-                        sendResponse(exchange, 200, Utils.toJson(response));
+                        try (JsonWriter out = JsonWriter.response(exchange, 200)) {
+                            out.beginObject().name("Top 10 Actors").beginArray();
+                            while (result.hasNext()) {
+                                Record record = result.next();
+                                out.beginObject()
+                                        .name("name").value(record.get("name").asString())
+                                        .name("totalMovies").value(record.get("totalMovies").asLong())
+                                        .endObject();
+                            }
+                            out.endArray().endObject().finish();
+                        }
                     }
 
                 } catch (Exception e) {
@@ -864,6 +1348,77 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
     }
 
 
+    /**
+     * Handle getting the n actors with the most ACTED_IN relationships, optionally counting only one genre
+     * <p>
+     * Served from the leaderboard kept with the co-star graph; Cypher is only used while the graph is cold
+     * </p>
+     *
+     * @param exchange HttpExchange object which has  response and request value
+     * @throws IOException to ensure if there  input or output exception occurs during handling of the request
+     */
+    private void topActorsHandler(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+            String genre = params.get("genre");
+            if (genre != null && genre.isEmpty()) {
+                genre = null;
+            }
+            int n;
+            try {
+                n = params.containsKey("n") ? Integer.parseInt(params.get("n")) : 10;
+            } catch (NumberFormatException e) {
+                n = -1;
+            }
+            if (n <= 0) {
+                sendResponse(exchange, 400, "n must be a positive integer");
+                return;
+            }
+
+            List<Map<String, Object>> actors;
+            if (graph.inSync()) {
+                actors = leaderboard.top(n, genre);
+            } else {
+                try (UnitOfWork work = Utils.readUnitOfWork()) {
+                    // a movie counts for each comma separated part of its genre, as in the leaderboard; a genre that
+                    // is not a string (null, a list) is skipped rather than failing the query
+                    String queryString = "MATCH (a:Actor)-[r:ACTED_IN]->(m:Movie) " +
+                            "WHERE $genre IS NULL OR $genre IN CASE WHEN m.genre STARTS WITH '' " +
+                            "THEN [g IN split(m.genre, ',') | trim(g)] ELSE [] END " +
+                            "RETURN a.actorId as actorId, a.name as name, COUNT(m) as totalMovies " +
+                            "ORDER BY totalMovies DESC " +
+                            "LIMIT $n";
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("genre", genre);
+                    parameters.put("n", n);
+
+                    actors = new ArrayList<>();
+                    StatementResult result = work.session().run(queryString, parameters);
+                    while (result.hasNext()) {
+                        Record record = result.next();
+                        Map<String, Object> actor = new LinkedHashMap<>();
+                        actor.put("actorId", record.get("actorId").asString());
+                        actor.put("name", record.get("name").isNull() ? null : record.get("name").asString());
+                        actor.put("totalMovies", record.get("totalMovies").asInt());
+                        actors.add(actor);
+                    }
+                } catch (Exception e) {
+                    sendResponse(exchange, 500, "Internal server error");
+                    return;
+                }
+            }
+
+            if (actors.isEmpty()) {
+                sendResponse(exchange, 404, "No actors found");
+            } else {
+                sendActors(exchange, "actors", actors, true);
+            }
+        } catch (Exception e) {
+            sendResponse(exchange, 400, "Invalid request format");
+        }
+    }
+
+
     /**
      * Handle delete method - delete the actor based on the given actorId , if actor exist
      *
@@ -871,8 +1426,6 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * @throws IOException to ensure if there  input or output exception occurs during handling of the request
      */
     private void deleteActorHandler(HttpExchange exchange) throws IOException {
-        Transaction tx = null;
-        Session session = null;
         try {
 
             if ("DELETE".equals(exchange.getRequestMethod())) {
@@ -887,31 +1440,48 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
                 // if actorID is empty or null response 400
                 if (actorId == null || actorId.isEmpty()) {
                     sendResponse(exchange, 400, "actorId is required");
+                } else if (!graph.mayHaveActor(actorId)) {
+                    sendResponse(exchange, 404, "Actor not found");
                 } else {
-                    try {
-                        session = Utils.getSession();
-                        tx = session.beginTransaction();
-
-                        // Check if the actor exists in the database
-                        String checkQuery = "MATCH (a:Actor {actorId: $actorId}) RETURN a";
-                        Map<String, Object> parameters = new HashMap<>();
-                        parameters.put("actorId", actorId);
-
-                        StatementResult checkResult = tx.run(checkQuery, parameters);
+                    try (UnitOfWork work = Utils.unitOfWork()) {
+                        List<Object> movieIds = null;
+                        // the transaction commits when this block closes it, before the delete is applied or
+                        // answered, so the client never sees a delete that rolls back
+                        try (Transaction tx = work.session().beginTransaction()) {
+
+                            // Check if the actor exists in the database
+                            String checkQuery = "MATCH (a:Actor {actorId: $actorId}) RETURN a";
+                            Map<String, Object> parameters = new HashMap<>();
+                            parameters.put("actorId", actorId);
+
+                            StatementResult checkResult = tx.run(checkQuery, parameters);
+
+                            if (checkResult.hasNext()) {
+                                // query check if actor exist based on ID, if it exist it delete it
+                                // if actor NOde has relationship it removes it and delete the actor node
+                                // the actor's movies are returned so their cached cast lists can be dropped
+                                String queryString = "MATCH (a:Actor {actorId: $actorId}) " +
+                                        "OPTIONAL MATCH (a)-[:ACTED_IN]->(m:Movie) " +
+                                        "WITH a, collect(m.movieId) AS movieIds " +
+                                        "DETACH DELETE a " +
+                                        "RETURN movieIds";
+
+                                movieIds = tx.run(queryString, parameters).single().get("movieIds").asList();
+                            }
+                            tx.success();
+                        }
 
 
                         // if no actor found response 404
-                        if (!checkResult.hasNext()) {
+                        if (movieIds == null) {
                             sendResponse(exchange, 404, "Actor not found");
-                            tx.success();
-                            ;
                         } else {
-                            // query check if actor exist based on ID, if it exist it delete it
-                            // if actor NOde has relationship it removes it and delete the actor node
-                            String queryString = "MATCH (a:Actor {actorId: $actorId}) DETACH DELETE a";
-
-                            tx.run(queryString, parameters);
-                            tx.success();
+                            work.committed();
+                            graph.removeActor(actorId);
+                            entityCache.invalidate(EntityCache.actorKey(actorId));
+                            for (Object movieId : movieIds) {
+                                entityCache.invalidate(EntityCache.movieKey(movieId.toString()));
+                            }
 
 
                             // deletes actor successfully
@@ -934,6 +1504,70 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
     }
 
 
+    /**
+     * Answers the request once the query completes, on a {@link RequestExecutor#callbacks()} thread rather than the
+     * one that called this, which returns at once. A failed query, or a responder that throws before anything was
+     * sent, is answered 500.
+     *
+     * @param request   the exchange, completed and closed by the callback
+     * @param records   records of a read started with {@link Utils#readAsync}, possibly shared with other requests
+     * @param responder writes the response from the records
+     */
+    private void respondAsync(HttpExchange request, CompletionStage<List<Record>> records, RecordsResponder responder) {
+        Metrics.Timer timer = Metrics.detach(Metrics.Phase.NEO4J);
+        records.whenCompleteAsync((result, error) -> {
+            timer.resume();
+            try {
+                if (error != null) {
+                    Metrics.exception(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    sendResponse(request, 500, "Internal server error");
+                } else {
+                    try {
+                        responder.respond(result);
+                    } catch (Exception e) {
+                        Metrics.exception(e);
+                        if (request.getResponseCode() < 0) {
+                            sendResponse(request, 500, "Internal server error");
+                        } else {
+                            request.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // client went away, nothing left to answer
+                request.close();
+            } finally {
+                timer.end(request);
+            }
+        }, RequestExecutor.callbacks());
+    }
+
+
+    /**
+     * Key of a read for {@link SingleFlight}: the endpoint and every parameter of its query, each prefixed with
+     * its length so that no two parameter lists give the same key. Callers pass {@link EntityCache#stamp()} last, or
+     * {@link EntityCache#stamp(String)} for a read of one cached entity, so a request arriving after a write
+     * never joins a read started before it.
+     */
+    private static String readKey(String endpoint, Object... parameters) {
+        StringBuilder key = new StringBuilder(endpoint);
+        for (Object parameter : parameters) {
+            String value = String.valueOf(parameter);
+            key.append('|').append(value.length()).append(':').append(value);
+        }
+        return key.toString();
+    }
+
+
+    /**
+     * Writes a response from the records of an asynchronous read
+     */
+    private interface RecordsResponder {
+        void respond(List<Record> records) throws IOException;
+    }
+
+
     /**
      * Gives an HTTP response with the corresponding status code and response body required
      *
@@ -944,9 +1578,11 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      */
 
     private void GetResponseStatus(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
+        Metrics.enter(Metrics.Phase.SERIALIZE);
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, body.length);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(response.getBytes());
+            os.write(body);
         }
     }
 
@@ -959,15 +1595,18 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * @param response   the actual body to sent to the user
      * @throws IOException If exception error occurs while passing the response
      */
-    private String RequestBodyReader(InputStream inputStream) throws IOException {
+    String RequestBodyReader(InputStream inputStream) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
             return reader.lines().collect(Collectors.joining(System.lineSeparator()));
         }
     }
 
 
-    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
         Map<String, String> queryPairs = new HashMap<>();
+        if (query == null) {
+            return queryPairs;
+        }
         String[] pairs = query.split("&");
         for (String pair : pairs) {
             int idx = pair.indexOf("=");
@@ -988,10 +1627,12 @@ public class SixDegreesOfKevinBacon implements HttpHandler {
      * @throws If unsupported character isusse.
      */
     private static void sendResponse(HttpExchange request, int statusCode, String response) throws IOException {
-        request.sendResponseHeaders(statusCode, response.getBytes(StandardCharsets.UTF_8).length);
+        Metrics.enter(Metrics.Phase.SERIALIZE);
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        request.sendResponseHeaders(statusCode, body.length);
 
         try (OutputStream os = request.getResponseBody()) {
-            os.write(response.getBytes(StandardCharsets.UTF_8));
+            os.write(body);
         }
     }
 
@@ -0,0 +1,59 @@
+package ca.yorku.eecs;
+
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.Session;
+
+/**
+ * One Neo4j session shared by every statement a request runs. The session is opened on first use and
+ * holds one of the pool permits handed out by {@link Utils} until the unit of work is closed.
+ * <p>
+ * A write unit of work records its bookmark with {@link Utils#bookmarkCommitted} on {@link #committed()} and
+ * again when closed, so reads that start afterwards see its writes.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private final AccessMode mode;
+    private Session session;
+
+
+    UnitOfWork(AccessMode mode) {
+        this.mode = mode;
+    }
+
+
+    /**
+     * @return the request's session, opened on the first call
+     */
+    public Session session() {
+        if (session == null) {
+            Metrics.enter(Metrics.Phase.NEO4J);
+            session = Utils.acquireSession(mode);
+        }
+        return session;
+    }
+
+
+    /**
+     * Call once a write has committed and before it is acknowledged or applied anywhere else
+     */
+    public void committed() {
+        if (session != null && mode == AccessMode.WRITE) {
+            Utils.bookmarkCommitted(session.lastBookmark());
+        }
+    }
+
+
+    @Override
+    public void close() {
+        if (session != null) {
+            try {
+                session.close();
+                committed();
+            } finally {
+                session = null;
+                Utils.releaseSession();
+                Metrics.enter(Metrics.Phase.COMPUTE);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ca.yorku.eecs;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks and writes the results as JSON, one file per commit being compared.
+ * <p>
+ * The benchmark sources live beside the server's in package ca.yorku.eecs and are compiled together with
+ * them by benchmarks/pom.xml, which runs jmh-generator-annprocess and packages everything in one jar:
+ * </p>
+ * <pre>
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar [JMH options, e.g. GraphBenchmark -p edges=10000]
+ * </pre>
+ * Results go to jmh-result.json unless bench.result names another file; two result files can be compared
+ * with any JMH JSON viewer.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .resultFormat(ResultFormatType.JSON)
+                .result(Settings.get("bench.result", "jmh-result.json"))
+                .build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package ca.yorku.eecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-request cost of {@link SixDegreesOfKevinBacon#handle} against a stubbed exchange, for the endpoints
+ * answered in memory while the co-star graph is in sync and for the validation paths every endpoint has.
+ * Endpoints that always reach Neo4j are left to the load generator, which runs against a real database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DispatchBenchmark {
+
+    private static final int EDGES = 100000;
+
+    @Param({
+            "GET /api/v1/computeBaconNumber?actorId=nm0001234",
+            "GET /api/v1/computeBaconPath?actorId=nm0001234",
+            "GET /api/v1/computeDegrees?from=nm0001234&to=nm0004321",
+            "GET /api/v1/computeDegreesPath?from=nm0001234&to=nm0004321",
+            "GET /api/v1/top10Actors",
+            "GET /api/v1/topActors?n=50&genre=Drama",
+            "GET /api/v1/moviesByGenre?genre=Drama,Comedy&op=or&limit=100",
+            "GET /api/v1/getActor",
+            "POST /api/v1/addActor {\"name\": \"\"}",
+            "GET /api/v1/unknown"
+    })
+    public String request;
+
+    private SixDegreesOfKevinBacon handler;
+    private StubExchange exchange;
+    private String method;
+    private URI uri;
+    private byte[] body;
+
+
+    @Setup
+    public void setUp() {
+        handler = new SixDegreesOfKevinBacon(SyntheticGraph.build(EDGES, 42));
+        exchange = new StubExchange();
+
+        String[] parts = request.split(" ", 3);
+        method = parts[0];
+        uri = URI.create(parts[1]);
+        body = (parts.length > 2 ? parts[2] : "").getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Benchmark
+    public long handle() throws IOException {
+        handler.handle(exchange.reset(method, uri, body));
+        return exchange.responseBytes();
+    }
+}
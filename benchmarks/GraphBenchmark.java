@@ -0,0 +1,100 @@
+package ca.yorku.eecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path computations over synthetic power-law graphs: bidirectional BFS between two actors, Bacon lookups in
+ * the precomputed distance table, and the full BFS that rebuilds that table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GraphBenchmark {
+
+    private static final int SAMPLE = 1024;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int edges;
+
+    private CoStarGraph graph;
+    private DistanceTable baconTable;
+    private String[] actorIds;
+
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String from(String[] ids) {
+            return ids[next++ & (SAMPLE - 1)];
+        }
+
+        String to(String[] ids) {
+            return ids[(next * 31 + 7) & (SAMPLE - 1)];
+        }
+    }
+
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticGraph.build(edges, 42);
+        baconTable = new DistanceTable(graph, SixDegreesOfKevinBacon.KEVIN_BACON_ID);
+        actorIds = SyntheticGraph.sampleActorIds(graph, SAMPLE, 7);
+    }
+
+
+    @Benchmark
+    public int distance(Cursor cursor) {
+        String from = cursor.from(actorIds);
+        return graph.distance(from, cursor.to(actorIds));
+    }
+
+
+    @Benchmark
+    public List<String> path(Cursor cursor) {
+        String from = cursor.from(actorIds);
+        return graph.path(from, cursor.to(actorIds));
+    }
+
+
+    @Benchmark
+    public int baconNumber(Cursor cursor) {
+        return baconTable.distance(cursor.from(actorIds));
+    }
+
+
+    @Benchmark
+    public List<String> baconPath(Cursor cursor) {
+        return baconTable.path(cursor.from(actorIds));
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public void baconTableRebuild() {
+        graph.lock().writeLock().lock();
+        try {
+            baconTable.graphLoaded();
+        } finally {
+            graph.lock().writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ca.yorku.eecs;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator: requests are started at a constant arrival rate whatever the service's response
+ * times, and each latency is measured from the moment the request was due rather than when it was sent. A
+ * stalled server therefore shows up in the percentiles instead of silently slowing the generator down
+ * (coordinated omission).
+ * <p>
+ * The target is any running server. With load.startServer=true, {@link App} is started in this JVM against the
+ * configured neo4j.uri, meant to be a throwaway instance; load.seedEdges streams a synthetic power-law graph
+ * into it through /api/v1/bulkLoad first.
+ * </p>
+ * Per endpoint, a p50/p90/p99/p99.9/max summary is printed and the full distribution is written as an .hgrm
+ * file to load.reportDir.
+ * <br>
+ * Settings: load.target, load.rate (requests/s), load.durationSeconds, load.warmupSeconds, load.threads,
+ * load.mix (endpoint:weight,...), load.seedEdges, load.graphEdges (size of a graph seeded earlier),
+ * load.startServer, load.reportDir
+ */
+public class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final String target;
+    private final int edges;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int totalWeight;
+    private final AtomicLong createdActors = new AtomicLong();
+
+
+    LoadGenerator(String target, int edges, String mix) {
+        this.target = target;
+        this.edges = edges;
+        int weight = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            Endpoint endpoint = new Endpoint(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            endpoints.add(endpoint);
+            weight += endpoint.weight;
+        }
+        this.totalWeight = weight;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        if (Settings.getBoolean("load.startServer", false)) {
+            App.main(new String[0]);
+        }
+        int seedEdges = Settings.getInt("load.seedEdges", 0);
+        LoadGenerator generator = new LoadGenerator(
+                Settings.get("load.target", "http://localhost:" + App.PORT),
+                // ids requested are drawn from the seeded graph, or from one of this size seeded earlier
+                seedEdges > 0 ? seedEdges : Settings.getInt("load.graphEdges", 100000),
+                Settings.get("load.mix", "getActor:40,computeBaconNumber:30,top10Actors:10,getMovie:10," +
+                        "addRelationship:7,addActor:3"));
+        if (seedEdges > 0) {
+            generator.seed();
+        }
+        generator.run(Settings.getInt("load.rate", 500),
+                Settings.getInt("load.durationSeconds", 60),
+                Settings.getInt("load.warmupSeconds", 10),
+                Settings.getInt("load.threads", 256));
+        generator.report(System.out, Paths.get(Settings.get("load.reportDir", "load-report")));
+        System.exit(0);
+    }
+
+
+    /**
+     * Streams the synthetic graph to the bulk load endpoint
+     */
+    void seed() throws Exception {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(target + "/api/v1/bulkLoad?batchSize=5000")
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(1 << 16);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            SyntheticGraph.generate(edges, 42, new SyntheticGraph.Sink() {
+                @Override
+                public void actor(String actorId, String name) throws IOException {
+                    line(new JSONObject().put("type", "actor").put("actorId", actorId).put("name", name));
+                }
+
+                @Override
+                public void movie(String movieId, String name, String genre) throws IOException {
+                    line(new JSONObject().put("type", "movie").put("movieId", movieId).put("name", name)
+                            .put("genre", genre));
+                }
+
+                @Override
+                public void relationship(String actorId, String movieId) throws IOException {
+                    line(new JSONObject().put("type", "relationship").put("actorId", actorId).put("movieId", movieId));
+                }
+
+                private void line(JSONObject row) throws IOException {
+                    out.write(row.toString());
+                    out.write('\n');
+                }
+            });
+        }
+        int status = connection.getResponseCode();
+        drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        System.out.printf("Seeded %d relationships in %d s (HTTP %d)\n",
+                edges, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), status);
+    }
+
+
+    /**
+     * Issues requests at a constant rate for the duration; only requests due after the warmup are recorded
+     */
+    void run(int rate, int durationSeconds, int warmupSeconds, int threads) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Random random = new Random(7);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (long due = start; due < end; due += interval) {
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = pick(random);
+            long scheduled = due;
+            // an exhausted pool queues the request, and the queueing counts towards its latency
+            workers.execute(() -> endpoint.call(scheduled, scheduled >= measureFrom));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+
+    void report(PrintStream out, Path reportDir) throws IOException {
+        Files.createDirectories(reportDir);
+        out.printf("%-20s %9s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "2xx", "4xx", "5xx/io", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Endpoint endpoint : endpoints) {
+            LatencyHistogram h = endpoint.latencies;
+            out.printf("%-20s %9d %8d %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", endpoint.name, h.count(),
+                    endpoint.ok.sum(), endpoint.rejected.sum(), endpoint.failed.sum(),
+                    h.valueAtPercentile(50) / 1000.0, h.valueAtPercentile(90) / 1000.0,
+                    h.valueAtPercentile(99) / 1000.0, h.valueAtPercentile(99.9) / 1000.0, h.max() / 1000.0);
+            try (PrintStream hgrm = new PrintStream(Files.newOutputStream(reportDir.resolve(endpoint.name + ".hgrm")))) {
+                h.outputPercentileDistribution(hgrm, 1000.0);
+            }
+        }
+    }
+
+
+    private Endpoint pick(Random random) {
+        int choice = random.nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints) {
+            choice -= endpoint.weight;
+            if (choice < 0) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) >= 0) {
+                // keep-alive reuses the connection only once the body is consumed
+            }
+        }
+    }
+
+
+    /**
+     * One endpoint of the mix, with the way its requests are built and its own results
+     */
+    private final class Endpoint {
+        final String name;
+        final int weight;
+        final LatencyHistogram latencies = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+        final LongAdder ok = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        Endpoint(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+            // fails fast on a name the mix does not know
+            request(ThreadLocalRandom.current());
+        }
+
+        void call(long due, boolean record) {
+            String[] request = request(ThreadLocalRandom.current());
+            int status;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(target + request[1]).openConnection();
+                connection.setRequestMethod(request[0]);
+                if (request[2] != null) {
+                    connection.setDoOutput(true);
+                    byte[] body = request[2].getBytes(StandardCharsets.UTF_8);
+                    connection.setFixedLengthStreamingMode(body.length);
+                    connection.getOutputStream().write(body);
+                }
+                status = connection.getResponseCode();
+                drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            } catch (IOException e) {
+                status = -1;
+            }
+            if (!record) {
+                return;
+            }
+            latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+            if (status >= 200 && status < 300) {
+                ok.increment();
+            } else if (status >= 400 && status < 500) {
+                rejected.increment();
+            } else {
+                failed.increment();
+            }
+        }
+
+        /**
+         * @return method, path with query, and body or null
+         */
+        String[] request(Random random) {
+            String actorId = SyntheticGraph.actorId(SyntheticGraph.skewed(random, SyntheticGraph.actorCount(edges)));
+            String movieId = SyntheticGraph.movieId(random.nextInt(SyntheticGraph.movieCount(edges)));
+            switch (name) {
+                case "getActor":
+                    return new String[]{"GET", "/api/v1/getActor?actorId=" + actorId, null};
+                case "getMovie":
+                    return new String[]{"GET", "/api/v1/getMovie?movieId=" + movieId, null};
+                case "computeBaconNumber":
+                    return new String[]{"GET", "/api/v1/computeBaconNumber?actorId=" + actorId, null};
+                case "computeBaconPath":
+                    return new String[]{"GET", "/api/v1/computeBaconPath?actorId=" + actorId, null};
+                case "top10Actors":
+                    return new String[]{"GET", "/api/v1/top10Actors", null};
+                case "moviesByGenre":
+                    return new String[]{"GET", "/api/v1/moviesByGenre?genre=" +
+                            SyntheticGraph.GENRES[random.nextInt(SyntheticGraph.GENRES.length)], null};
+                case "addActor":
+                    return new String[]{"POST", "/api/v1/addActor", new JSONObject()
+                            .put("actorId", "lg" + System.nanoTime() + "-" + createdActors.incrementAndGet())
+                            .put("name", "Load Actor").toString()};
+                case "addRelationship":
+                    return new String[]{"POST", "/api/v1/addRelationship", new JSONObject()
+                            .put("actorId", actorId).put("movieId", movieId).toString()};
+                default:
+                    throw new IllegalArgumentException("Unknown endpoint in load.mix: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.yorku.eecs;
+
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-request helpers every handler goes through: query string parsing, body reading and JSON output
+ * through {@link JsonWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RequestBenchmark {
+
+    private static final String QUERY = "actorId=nm0000102&genre=Drama,Comedy&op=or&limit=100&after=tt0087277";
+    private static final byte[] BODY =
+            "{\"actorId\": \"nm0000102\", \"movieId\": \"tt0087277\"}".getBytes(StandardCharsets.UTF_8);
+
+    private SixDegreesOfKevinBacon handler;
+    private Value movies;
+
+
+    @Setup
+    public void setUp() {
+        handler = new SixDegreesOfKevinBacon(new CoStarGraph());
+
+        // the movies of a prolific actor, as the getActor query returns them
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            titles.add("Movie title number " + i);
+        }
+        movies = Values.value(titles);
+    }
+
+
+    @Benchmark
+    public Map<String, String> parseQuery() throws IOException {
+        return SixDegreesOfKevinBacon.parseQuery(QUERY);
+    }
+
+
+    @Benchmark
+    public String readBody() throws IOException {
+        return handler.RequestBodyReader(new ByteArrayInputStream(BODY));
+    }
+
+
+    /**
+     * Encodes a getActor response the way the handler does before caching it
+     */
+    @Benchmark
+    public byte[] writeActor() throws IOException {
+        try (JsonWriter out = JsonWriter.buffered()) {
+            out.beginObject()
+                    .name("actorId").value("nm0000102")
+                    .name("name").value("Kevin Bacon")
+                    .name("movies").strings(movies)
+                    .endObject();
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ca.yorku.eecs;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * In-memory HttpExchange for driving a handler without a server. The response body is counted and dropped,
+ * unless the exchange was asked to keep it.
+ */
+final class StubExchange extends HttpExchange {
+
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private String method;
+    private URI uri;
+    private InputStream body;
+    private int responseCode = -1;
+    private long responseLength = -1;
+    private long responseBytes;
+    private ByteArrayOutputStream kept;
+
+    private final OutputStream responseBody = new OutputStream() {
+        @Override
+        public void write(int b) {
+            responseBytes++;
+            if (kept != null) {
+                kept.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            responseBytes += len;
+            if (kept != null) {
+                kept.write(b, off, len);
+            }
+        }
+    };
+
+
+    /**
+     * Prepares the exchange for the next request
+     */
+    StubExchange reset(String method, URI uri, byte[] body) {
+        this.method = method;
+        this.uri = uri;
+        this.body = new ByteArrayInputStream(body);
+        requestHeaders.clear();
+        if (body.length > 0) {
+            requestHeaders.set("Content-Length", Integer.toString(body.length));
+        }
+        responseHeaders.clear();
+        responseCode = -1;
+        responseLength = -1;
+        responseBytes = 0;
+        if (kept != null) {
+            kept.reset();
+        }
+        return this;
+    }
+
+
+    /**
+     * Keeps the response bodies from now on, for {@link #responseBody()}
+     */
+    StubExchange keepResponse() {
+        kept = new ByteArrayOutputStream();
+        return this;
+    }
+
+
+    long responseBytes() {
+        return responseBytes;
+    }
+
+
+    /**
+     * @return length given with the response headers, 0 for chunked, -1 before they were sent
+     */
+    long responseLength() {
+        return responseLength;
+    }
+
+
+    /**
+     * @return body written since the last reset, if the exchange keeps responses
+     */
+    byte[] responseBody() {
+        return kept.toByteArray();
+    }
+
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return body;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        responseCode = rCode;
+        this.responseLength = responseLength;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            body = i;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
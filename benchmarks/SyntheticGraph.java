@@ -0,0 +1,134 @@
+package ca.yorku.eecs;
+
+import java.util.Random;
+
+/**
+ * Actor-movie graphs with a power-law cast distribution for the benchmarks and the load generator: every movie
+ * gets about the same cast size, but actors are drawn so a few of them appear in a great many movies, as in the
+ * IMDb data. Kevin Bacon's id (actor 102) falls in the well-connected head.
+ */
+final class SyntheticGraph {
+
+    static final String[] GENRES = {"Drama", "Comedy", "Action", "Thriller", "Romance", "Horror", "Documentary"};
+
+    /**
+     * Receives the generated rows, actors and movies before the relationships that use them
+     */
+    interface Sink {
+        void actor(String actorId, String name) throws Exception;
+
+        void movie(String movieId, String name, String genre) throws Exception;
+
+        void relationship(String actorId, String movieId) throws Exception;
+    }
+
+    private SyntheticGraph() {
+    }
+
+
+    static int actorCount(int edges) {
+        return Math.max(200, edges / 4);
+    }
+
+
+    static int movieCount(int edges) {
+        return Math.max(1, edges / 8);
+    }
+
+
+    static String actorId(int actor) {
+        return ImdbImporter.formatId("nm", actor);
+    }
+
+
+    static String movieId(int movie) {
+        return ImdbImporter.formatId("tt", movie);
+    }
+
+
+    /**
+     * @param edges number of ACTED_IN relationships
+     * @param seed  random seed, the same seed gives the same rows
+     * @param sink  receiver of the rows
+     */
+    static void generate(int edges, long seed, Sink sink) throws Exception {
+        int actorCount = actorCount(edges);
+        int movieCount = movieCount(edges);
+        Random random = new Random(seed);
+
+        String[] actorIds = new String[actorCount];
+        String[] movieIds = new String[movieCount];
+        for (int i = 0; i < actorCount; i++) {
+            actorIds[i] = actorId(i);
+            sink.actor(actorIds[i], "Actor " + i);
+        }
+        for (int i = 0; i < movieCount; i++) {
+            movieIds[i] = movieId(i);
+            sink.movie(movieIds[i], "Movie " + i, GENRES[random.nextInt(GENRES.length)]);
+        }
+        for (int i = 0; i < edges; i++) {
+            sink.relationship(actorIds[skewed(random, actorCount)], movieIds[i % movieCount]);
+        }
+    }
+
+
+    /**
+     * @param edges number of ACTED_IN relationships
+     * @param seed  random seed, the same seed gives the same graph
+     * @return warm graph, as if restored from a snapshot and verified against the database
+     */
+    static CoStarGraph build(int edges, long seed) {
+        CoStarGraph cold = new CoStarGraph(actorCount(edges), movieCount(edges));
+        try {
+            generate(edges, seed, new Sink() {
+                @Override
+                public void actor(String actorId, String name) {
+                    cold.addActor(actorId, name);
+                }
+
+                @Override
+                public void movie(String movieId, String name, String genre) {
+                    cold.addMovie(movieId, name, genre);
+                }
+
+                @Override
+                public void relationship(String actorId, String movieId) {
+                    cold.addRelationship(actorId, movieId);
+                }
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        cold.lock().readLock().lock();
+        try {
+            CoStarGraph graph = CoStarGraph.restore(cold.capture());
+            graph.assumeInSync();
+            return graph;
+        } finally {
+            cold.lock().readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return actorIds spread over the whole graph, for picking lookup targets
+     */
+    static String[] sampleActorIds(CoStarGraph graph, int count, long seed) {
+        Random random = new Random(seed);
+        String[] sample = new String[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = graph.actorIdAt(random.nextInt(graph.actorSlots()));
+        }
+        return sample;
+    }
+
+
+    /**
+     * Index drawn with density proportional to x^(-2/3), so low indexes are picked far more often
+     */
+    static int skewed(Random random, int count) {
+        double u = random.nextDouble();
+        return (int) (count * u * u * u);
+    }
+}
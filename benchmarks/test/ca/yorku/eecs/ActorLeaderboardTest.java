@@ -0,0 +1,121 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays random changes on a synthetic graph and checks the rankings against counts taken straight from the
+ * graph after each batch of changes
+ */
+public class ActorLeaderboardTest {
+
+    private static final int EDGES = 2000;
+    private static final String[] MIXED_GENRES = {"Drama,Romance", " Comedy , Drama", "Drama,Drama", "", null};
+
+
+    @Test
+    public void rankingsFollowChanges() {
+        for (long seed = 1; seed <= 5; seed++) {
+            CoStarGraph graph = SyntheticGraph.build(EDGES, seed);
+            ActorLeaderboard leaderboard = new ActorLeaderboard(graph);
+            Random random = new Random(seed);
+            List<String> actorIds = new ArrayList<>();
+            for (int actor = 0; actor < SyntheticGraph.actorCount(EDGES); actor++) {
+                actorIds.add(SyntheticGraph.actorId(actor));
+            }
+            List<String> movieIds = new ArrayList<>();
+            for (int movie = 0; movie < SyntheticGraph.movieCount(EDGES); movie++) {
+                movieIds.add(SyntheticGraph.movieId(movie));
+            }
+            List<String> removed = new ArrayList<>();
+
+            for (int change = 1; change <= 600; change++) {
+                int op = random.nextInt(100);
+                if (op < 60) {
+                    graph.addRelationship(pick(random, actorIds), pick(random, movieIds));
+                } else if (op < 70) {
+                    String movieId = "tt9" + change;
+                    graph.addMovie(movieId, "Movie " + movieId, MIXED_GENRES[random.nextInt(MIXED_GENRES.length)]);
+                    movieIds.add(movieId);
+                    graph.addRelationship(pick(random, actorIds), movieId);
+                } else if (op < 80) {
+                    String actorId = removed.isEmpty() ? "nm9" + change : removed.remove(0);
+                    graph.addActor(actorId, "Actor " + actorId);
+                    graph.addRelationship(actorId, pick(random, movieIds));
+                    actorIds.add(actorId);
+                } else {
+                    String actorId = actorIds.remove(random.nextInt(actorIds.size()));
+                    graph.removeActor(actorId);
+                    removed.add(actorId);
+                }
+                if (change % 50 == 0) {
+                    String context = "seed " + seed + ", change " + change;
+                    assertRanking(context, graph, leaderboard, null);
+                    for (String genre : SyntheticGraph.GENRES) {
+                        assertRanking(context, graph, leaderboard, genre);
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void splitsGenres() {
+        assertArrayEquals(new String[]{"Drama", "Romance"}, ActorLeaderboard.split("Drama,Romance"));
+        assertArrayEquals(new String[]{"Comedy", "Drama"}, ActorLeaderboard.split(" Comedy , Drama,,Comedy"));
+        assertArrayEquals(new String[0], ActorLeaderboard.split(""));
+        assertArrayEquals(new String[0], ActorLeaderboard.split(null));
+        assertArrayEquals(new String[0], ActorLeaderboard.split(" , "));
+    }
+
+
+    private static void assertRanking(String context, CoStarGraph graph, ActorLeaderboard leaderboard,
+                                      String genre) {
+        List<int[]> expected = new ArrayList<>();
+        IntList movies = new IntList();
+        for (int actor = 0; actor < graph.actorSlots(); actor++) {
+            String actorId = graph.actorIdAt(actor);
+            if (actorId == null || graph.actorIndex(actorId) != actor) {
+                continue;
+            }
+            graph.moviesOf(actor, movies);
+            int count = 0;
+            for (int i = 0; i < movies.size(); i++) {
+                if (genre == null || Arrays.asList(ActorLeaderboard.split(graph.movieGenreAt(movies.get(i))))
+                        .contains(genre)) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                expected.add(new int[]{count, actor});
+            }
+        }
+        // most movies first, lower index first among equals
+        expected.sort(Comparator.<int[]>comparingInt(entry -> -entry[0]).thenComparingInt(entry -> entry[1]));
+
+        List<Map<String, Object>> top = leaderboard.top(25, genre);
+        String ranking = context + ", genre " + genre;
+        assertEquals(ranking, Math.min(25, expected.size()), top.size());
+        for (int i = 0; i < top.size(); i++) {
+            int actor = expected.get(i)[1];
+            assertEquals(ranking + ", rank " + i, graph.actorIdAt(actor), top.get(i).get("actorId"));
+            assertEquals(ranking + ", rank " + i, graph.actorNameAt(actor), top.get(i).get("name"));
+            assertEquals(ranking + ", rank " + i, expected.get(i)[0], top.get(i).get("totalMovies"));
+        }
+    }
+
+
+    private static String pick(Random random, List<String> ids) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+}
@@ -0,0 +1,294 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batches, per-line errors and early stops of a bulk load, against an in-memory stand-in for the database
+ * that answers the three batch statements
+ */
+public class BulkLoaderTest {
+
+    private final Set<String> actors = new HashSet<>();
+    private final Set<String> movies = new HashSet<>();
+    private final Set<String> relationships = new HashSet<>();
+    // rows of each committed transaction
+    private final List<Integer> transactions = new ArrayList<>();
+    private int failTransaction = -1;
+
+    private final CoStarGraph graph = new CoStarGraph();
+
+
+    @Test
+    public void writesRowsInBatches() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 1; i <= 7; i++) {
+            body.append(actor("nm" + i)).append('\n');
+        }
+        body.append(movie("tt1")).append('\n');
+        body.append('\n');
+        for (int i = 1; i <= 7; i++) {
+            body.append(relationship("nm" + i, "tt1")).append('\n');
+        }
+
+        BulkLoader loader = loader(4);
+        Map<String, Object> report = loader.load(reader(body.toString()));
+
+        assertFalse(loader.failed());
+        assertEquals(16, report.get("lines"));
+        assertEquals(7, report.get("actorsAdded"));
+        assertEquals(1, report.get("moviesAdded"));
+        assertEquals(7, report.get("relationshipsAdded"));
+        assertEquals(0, report.get("errorCount"));
+        assertEquals(Arrays.asList(4, 4, 4, 3), transactions);
+        assertEquals(1, graph.distance("nm1", "nm7"));
+    }
+
+
+    /**
+     * Nodes of a batch are written before its relationships, so a relationship may use a node of its own batch
+     */
+    @Test
+    public void writesNodesBeforeRelationshipsOfTheSameBatch() {
+        BulkLoader loader = loader(100);
+        Map<String, Object> report = loader.load(reader(
+                relationship("nm1", "tt1") + "\n" + actor("nm1") + "\n" + movie("tt1") + "\n"));
+
+        assertEquals(1, report.get("relationshipsAdded"));
+        assertEquals(0, report.get("errorCount"));
+        assertEquals(Arrays.asList(3), transactions);
+    }
+
+
+    @Test
+    public void reportsBadLinesAndKeepsGoing() {
+        actors.add("nm9");
+        BulkLoader loader = loader(100);
+        Map<String, Object> report = loader.load(reader(String.join("\n",
+                actor("nm1"),
+                actor("nm1"),
+                "{not json",
+                "{\"type\": \"actor\", \"actorId\": \"nm2\"}",
+                "{\"type\": \"director\"}",
+                actor("nm9"),
+                movie("tt1"),
+                relationship("nm1", "tt1"),
+                relationship("nm1", "tt1"),
+                relationship("nm404", "tt1"))));
+
+        assertFalse(loader.failed());
+        assertEquals(1, report.get("actorsAdded"));
+        assertEquals(1, report.get("moviesAdded"));
+        assertEquals(1, report.get("relationshipsAdded"));
+        assertEquals(7, report.get("errorCount"));
+        assertEquals(Arrays.asList(
+                error(2, "Actor already exists"),
+                error(3, "JSON format not valid"),
+                error(4, "actorId and name are required"),
+                error(5, "type must be actor, movie or relationship"),
+                error(9, "Relationship ACTED_IN already exist"),
+                error(6, "Actor already exists"),
+                error(10, "Actor/Movie does not exist")), report.get("errors"));
+    }
+
+
+    @Test
+    public void stopsAtFailedCommit() {
+        failTransaction = 1;
+        StringBuilder body = new StringBuilder();
+        for (int i = 1; i <= 5; i++) {
+            body.append(actor("nm" + i)).append('\n');
+        }
+
+        BulkLoader loader = loader(2);
+        Map<String, Object> report = loader.load(reader(body.toString()));
+
+        assertTrue(loader.failed());
+        assertEquals(2, report.get("actorsAdded"));
+        assertEquals("Batch ending at line 4 failed: database down", report.get("failure"));
+        assertEquals(Arrays.asList(2), transactions);
+        assertTrue(graph.actorIndex("nm3") < 0);
+    }
+
+
+    /**
+     * A body broken off in the middle keeps the batches committed before and reports where it stopped
+     */
+    @Test
+    public void reportsBodyBrokenOff() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 1; i <= 5; i++) {
+            body.append(actor("nm" + i)).append('\n');
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        InputStream brokenOff = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == bytes.length) {
+                    throw new IOException("connection reset");
+                }
+                return bytes[position++];
+            }
+        };
+
+        BulkLoader loader = loader(2);
+        Map<String, Object> report = loader.load(
+                new BufferedReader(new InputStreamReader(brokenOff, StandardCharsets.UTF_8), 16));
+
+        assertTrue(loader.failed());
+        assertEquals(4, report.get("actorsAdded"));
+        assertEquals(5, report.get("lines"));
+        assertEquals("Request body could not be read after line 5, lines after 4 were not loaded: connection reset",
+                report.get("failure"));
+        assertTrue(graph.actorIndex("nm4") >= 0);
+        assertTrue(graph.actorIndex("nm5") < 0);
+    }
+
+
+    private BulkLoader loader(int batchSize) {
+        return new BulkLoader(graph, new EntityCache(100), session(), batchSize);
+    }
+
+
+    private static BufferedReader reader(String body) {
+        return new BufferedReader(new StringReader(body));
+    }
+
+
+    private static String actor(String actorId) {
+        return "{\"type\": \"actor\", \"actorId\": \"" + actorId + "\", \"name\": \"Actor " + actorId + "\"}";
+    }
+
+
+    private static String movie(String movieId) {
+        return "{\"type\": \"movie\", \"movieId\": \"" + movieId + "\", \"name\": \"Movie\", \"genre\": \"Drama\"}";
+    }
+
+
+    private static String relationship(String actorId, String movieId) {
+        return "{\"type\": \"relationship\", \"actorId\": \"" + actorId + "\", \"movieId\": \"" + movieId + "\"}";
+    }
+
+
+    private static Map<String, Object> error(int line, String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("line", line);
+        error.put("error", message);
+        return error;
+    }
+
+
+    /**
+     * Session running each write transaction against the sets, all or nothing
+     */
+    private Session session() {
+        return proxy(Session.class, (method, args) -> {
+            if (method.equals("writeTransaction")) {
+                Set<String> actorsBefore = new HashSet<>(actors);
+                Set<String> moviesBefore = new HashSet<>(movies);
+                Set<String> relationshipsBefore = new HashSet<>(relationships);
+                int[] rows = new int[1];
+                Transaction tx = proxy(Transaction.class, (txMethod, txArgs) -> {
+                    List<Map<String, Object>> batch = new ArrayList<>();
+                    for (Object row : ((Value) txArgs[1]).get("rows").asList()) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) row;
+                        batch.add(map);
+                    }
+                    rows[0] += batch.size();
+                    return result(run((String) txArgs[0], batch));
+                });
+                try {
+                    Object result = ((TransactionWork<?>) args[0]).execute(tx);
+                    if (transactions.size() == failTransaction) {
+                        throw new IllegalStateException("database down");
+                    }
+                    transactions.add(rows[0]);
+                    return result;
+                } catch (RuntimeException e) {
+                    actors.retainAll(actorsBefore);
+                    movies.retainAll(moviesBefore);
+                    relationships.retainAll(relationshipsBefore);
+                    throw e;
+                }
+            }
+            if (method.equals("lastBookmark")) {
+                return null;
+            }
+            throw new UnsupportedOperationException(method);
+        });
+    }
+
+
+    private List<Record> run(String statement, List<Map<String, Object>> rows) {
+        List<Record> records = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            String actorId = (String) row.get("actorId");
+            String movieId = (String) row.get("movieId");
+            boolean isNew;
+            if (statement.contains("MERGE (a:Actor")) {
+                isNew = actors.add(actorId);
+            } else if (statement.contains("MERGE (m:Movie")) {
+                isNew = movies.add(movieId);
+            } else if (actors.contains(actorId) && movies.contains(movieId)) {
+                isNew = relationships.add(actorId + '\u0000' + movieId);
+            } else {
+                // dropped by the MATCH
+                continue;
+            }
+            Value line = Values.value(((Number) row.get("line")).intValue());
+            Value created = Values.value(isNew);
+            records.add(proxy(Record.class, (method, args) -> "line".equals(args[0]) ? line : created));
+        }
+        return records;
+    }
+
+
+    private static StatementResult result(List<Record> records) {
+        return proxy(StatementResult.class, (method, args) -> {
+            if (method.equals("list") && args == null) {
+                return records;
+            }
+            throw new UnsupportedOperationException(method);
+        });
+    }
+
+
+    private interface Call {
+        Object invoke(String method, Object[] args);
+    }
+
+
+    private static <T> T proxy(Class<T> type, Call call) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> call.invoke(method.getName(), args)));
+    }
+}
@@ -0,0 +1,164 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes to the resident graph, on a graph built in memory and on one restored from its captured state, and
+ * its bidirectional searches checked against a plain breadth-first search.
+ */
+public class CoStarGraphTest {
+
+    @Test
+    public void searchesMatchBreadthFirstSearch() {
+        for (long seed = 1; seed <= 5; seed++) {
+            CoStarGraph graph = SyntheticGraph.build(2000, seed);
+            Random random = new Random(seed);
+            // a separate component, relationships in the overlay and a few removed actors
+            graph.addRelationship("nm9000001", "tt9000001");
+            graph.addRelationship("nm9000002", "tt9000001");
+            for (int i = 0; i < 50; i++) {
+                graph.addRelationship(randomActor(random), SyntheticGraph.movieId(random.nextInt(250)));
+            }
+            for (int i = 0; i < 20; i++) {
+                graph.removeActor(randomActor(random));
+            }
+            checkSearches(graph, random, "seed " + seed);
+            checkSearches(restore(graph), random, "restored, seed " + seed);
+        }
+    }
+
+
+    @Test
+    public void searchesHandleEdgeCases() {
+        CoStarGraph graph = SyntheticGraph.build(2000, 1);
+        String actorId = SyntheticGraph.actorId(1);
+        assertEquals(0, graph.distance(actorId, actorId));
+        assertEquals(Arrays.asList(actorId), graph.path(actorId, actorId));
+        assertEquals(-1, graph.distance(actorId, "nm9999999"));
+        assertNull(graph.path("nm9999999", actorId));
+    }
+
+
+    @Test
+    public void removesActorAddedOnlyThroughRelationship() {
+        CoStarGraph graph = new CoStarGraph(2, 2);
+        graph.addActor("nm1", "Named");
+        // more actors than the name array holds, none of them ever named
+        for (int i = 2; i <= 40; i++) {
+            graph.addRelationship("nm" + i, "tt1");
+        }
+        graph.removeActor("nm40");
+
+        assertTrue(graph.actorIndex("nm40") < 0);
+        assertEquals(39, graph.actorCount());
+        assertEquals(1, graph.distance("nm2", "nm39"));
+    }
+
+
+    @Test
+    public void removesActorAddedThroughRelationshipAfterRestore() {
+        CoStarGraph graph = restore(SyntheticGraph.build(200, 1));
+        int actors = graph.actorCount();
+        graph.addRelationship("nm9000001", SyntheticGraph.movieId(0));
+        graph.addRelationship(SyntheticGraph.actorId(0), SyntheticGraph.movieId(0));
+        assertEquals(1, graph.distance("nm9000001", SyntheticGraph.actorId(0)));
+
+        graph.removeActor("nm9000001");
+
+        assertTrue(graph.actorIndex("nm9000001") < 0);
+        assertEquals(actors, graph.actorCount());
+        assertEquals(-1, graph.distance("nm9000001", SyntheticGraph.actorId(0)));
+        assertNull(graph.path("nm9000001", SyntheticGraph.actorId(0)));
+
+        // and the removal survives the next snapshot
+        CoStarGraph restored = restore(graph);
+        assertTrue(restored.actorIndex("nm9000001") < 0);
+        assertEquals(actors, restored.actorCount());
+    }
+
+
+    private static void checkSearches(CoStarGraph graph, Random random, String context) {
+        String[] extra = {"nm9000001", "nm9000002"};
+        for (int i = 0; i < 200; i++) {
+            String from = i % 20 == 0 ? extra[i / 20 % 2] : randomActor(random);
+            String to = randomActor(random);
+            int expected = breadthFirstDistance(graph, from, to);
+            String pair = context + ", " + from + " to " + to;
+            assertEquals(pair, expected, graph.distance(from, to));
+            List<String> path = graph.path(from, to);
+            if (expected < 0) {
+                assertNull(pair, path);
+                continue;
+            }
+            assertNotNull(pair, path);
+            assertEquals(pair, expected + 1, path.size());
+            assertEquals(from, path.get(0));
+            assertEquals(to, path.get(path.size() - 1));
+            for (int step = 1; step < path.size(); step++) {
+                assertEquals(pair + ", step " + step, 1, breadthFirstDistance(graph, path.get(step - 1), path.get(step)));
+            }
+        }
+    }
+
+
+    /**
+     * Reference distance: one-sided search over the movies of each actor and the cast of each movie
+     */
+    private static int breadthFirstDistance(CoStarGraph graph, String fromActorId, String toActorId) {
+        int from = graph.actorIndex(fromActorId);
+        int to = graph.actorIndex(toActorId);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        int[] distance = new int[graph.actorSlots()];
+        Arrays.fill(distance, -1);
+        distance[from] = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        IntList movies = new IntList();
+        IntList cast = new IntList();
+        while (!queue.isEmpty()) {
+            int actor = queue.poll();
+            if (actor == to) {
+                return distance[actor];
+            }
+            graph.moviesOf(actor, movies);
+            for (int m = 0; m < movies.size(); m++) {
+                graph.castOf(movies.get(m), cast);
+                for (int c = 0; c < cast.size(); c++) {
+                    int coStar = cast.get(c);
+                    if (distance[coStar] < 0) {
+                        distance[coStar] = distance[actor] + 1;
+                        queue.add(coStar);
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    private static String randomActor(Random random) {
+        return SyntheticGraph.actorId(random.nextInt(SyntheticGraph.actorCount(2000)));
+    }
+
+
+    static CoStarGraph restore(CoStarGraph graph) {
+        graph.lock().readLock().lock();
+        try {
+            return CoStarGraph.restore(graph.capture());
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+}
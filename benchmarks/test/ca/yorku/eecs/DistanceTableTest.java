@@ -0,0 +1,152 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays random sequences of added relationships, actors and movies and removed actors on a synthetic graph,
+ * and checks the incrementally maintained tables against a table built from scratch after each change.
+ */
+public class DistanceTableTest {
+
+    private static final int EDGES = 2000;
+
+
+    @Test
+    public void incrementalUpdatesMatchRebuild() {
+        for (long seed = 1; seed <= 10; seed++) {
+            replay(seed, 400, 1);
+        }
+    }
+
+
+    /**
+     * Enough relationships to make the graph fold its overlay into the CSR arrays in between
+     */
+    @Test
+    public void incrementalUpdatesSurviveCompaction() {
+        replay(42, 6000, 250);
+    }
+
+
+    private static void replay(long seed, int changes, int checkEvery) {
+        CoStarGraph graph = SyntheticGraph.build(EDGES, seed);
+        Random random = new Random(seed);
+        String bacon = SixDegreesOfKevinBacon.KEVIN_BACON_ID;
+        String hub = SyntheticGraph.actorId(random.nextInt(SyntheticGraph.actorCount(EDGES)));
+        DistanceTable baconTable = new DistanceTable(graph, bacon);
+        DistanceTable hubTable = DistanceTable.build(graph, hub);
+
+        List<String> actorIds = new ArrayList<>();
+        for (int actor = 0; actor < SyntheticGraph.actorCount(EDGES); actor++) {
+            actorIds.add(SyntheticGraph.actorId(actor));
+        }
+        List<String> movieIds = new ArrayList<>();
+        for (int movie = 0; movie < SyntheticGraph.movieCount(EDGES); movie++) {
+            movieIds.add(SyntheticGraph.movieId(movie));
+        }
+        List<String> removed = new ArrayList<>();
+
+        for (int change = 1; change <= changes; change++) {
+            int op = random.nextInt(100);
+            String context = "seed " + seed + ", change " + change;
+            if (op < 60) {
+                graph.addRelationship(pick(random, actorIds), pick(random, movieIds));
+            } else if (op < 70) {
+                String actorId = "nm9" + change;
+                graph.addActor(actorId, "Actor " + actorId);
+                graph.addRelationship(actorId, pick(random, movieIds));
+                actorIds.add(actorId);
+            } else if (op < 75) {
+                String movieId = "tt9" + change;
+                graph.addMovie(movieId, "Movie " + movieId, "Drama");
+                movieIds.add(movieId);
+                graph.addRelationship(pick(random, actorIds), movieId);
+            } else if (op < 80 && !removed.isEmpty()) {
+                // an actor coming back after a delete, with a fresh set of movies
+                String actorId = removed.remove(random.nextInt(removed.size()));
+                graph.addActor(actorId, "Actor " + actorId);
+                graph.addRelationship(actorId, pick(random, movieIds));
+                actorIds.add(actorId);
+            } else {
+                String actorId = pick(random, actorIds);
+                if (!actorId.equals(bacon) && !actorId.equals(hub)) {
+                    graph.removeActor(actorId);
+                    actorIds.remove(actorId);
+                    removed.add(actorId);
+                }
+            }
+            if (change % checkEvery == 0) {
+                assertMatchesRebuild(context, graph, baconTable, bacon, actorIds, removed);
+                assertMatchesRebuild(context, graph, hubTable, hub, actorIds, removed);
+            }
+        }
+    }
+
+
+    private static void assertMatchesRebuild(String context, CoStarGraph graph, DistanceTable table, String centre,
+                                             List<String> actorIds, List<String> removed) {
+        DistanceTable rebuilt = new DistanceTable(graph, centre);
+        graph.removeListener(rebuilt);
+        for (String actorId : actorIds) {
+            int distance = table.distance(actorId);
+            assertEquals(context + ", distance of " + actorId + " from " + centre,
+                    rebuilt.distance(actorId), distance);
+            List<String> path = table.path(actorId);
+            if (distance < 0) {
+                assertNull(context + ", path of unreachable " + actorId, path);
+            } else {
+                assertNotNull(context + ", path of " + actorId, path);
+                assertEquals(context + ", path length of " + actorId, distance + 1, path.size());
+                assertEquals(actorId, path.get(0));
+                assertEquals(centre, path.get(path.size() - 1));
+                for (int i = 1; i < path.size(); i++) {
+                    assertTrue(context + ", " + path.get(i - 1) + " and " + path.get(i) + " are not co-stars",
+                            coStars(graph, path.get(i - 1), path.get(i)));
+                }
+            }
+        }
+        for (String actorId : removed) {
+            assertEquals(context + ", removed " + actorId, -1, table.distance(actorId));
+        }
+    }
+
+
+    private static boolean coStars(CoStarGraph graph, String first, String second) {
+        IntList movies = new IntList();
+        IntList cast = new IntList();
+        graph.lock().readLock().lock();
+        try {
+            int actor = graph.actorIndex(first);
+            int other = graph.actorIndex(second);
+            if (actor < 0 || other < 0) {
+                return false;
+            }
+            graph.moviesOf(actor, movies);
+            for (int m = 0; m < movies.size(); m++) {
+                graph.castOf(movies.get(m), cast);
+                for (int i = 0; i < cast.size(); i++) {
+                    if (cast.get(i) == other) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+    }
+
+
+    private static String pick(Random random, List<String> ids) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+}
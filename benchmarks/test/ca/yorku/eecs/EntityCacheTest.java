@@ -0,0 +1,119 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Admission, bounds and the stamp that keeps stale fills out of the entity cache
+ */
+public class EntityCacheTest {
+
+    private static final byte[] VALUE = {1};
+
+
+    @Test
+    public void refusesFillReadBeforeInvalidation() {
+        EntityCache cache = new EntityCache(1000);
+        String key = EntityCache.actorKey("nm1");
+        long stamp = cache.stamp(key);
+        cache.invalidate(key);
+        cache.put(key, VALUE, stamp);
+        assertNull(cache.get(key));
+
+        cache.put(key, VALUE, cache.stamp(key));
+        assertArrayEquals(VALUE, cache.get(key));
+    }
+
+
+    @Test
+    public void dropsEntryOnInvalidation() {
+        EntityCache cache = new EntityCache(1000);
+        String key = EntityCache.movieKey("tt1");
+        cache.put(key, VALUE, cache.stamp(key));
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+    }
+
+
+    @Test
+    public void invalidationOnlyHoldsBackFillsOfItsStripe() {
+        EntityCache cache = new EntityCache(10000);
+        int keys = 160;
+        long[] stamps = new long[keys];
+        for (int i = 0; i < keys; i++) {
+            stamps[i] = cache.stamp(EntityCache.actorKey("nm" + i));
+        }
+        long global = cache.stamp();
+        cache.invalidate(EntityCache.movieKey("tt1"));
+        assertEquals(global + 1, cache.stamp());
+
+        int filled = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = EntityCache.actorKey("nm" + i);
+            cache.put(key, VALUE, stamps[i]);
+            if (cache.get(key) != null) {
+                filled++;
+            }
+        }
+        // one stripe in sixteen shares the invalidated key's stamp
+        assertTrue("only " + filled + " of " + keys + " fills kept", filled > keys / 2 && filled < keys);
+    }
+
+
+    @Test
+    public void keepsPopularEntriesThroughScan() {
+        EntityCache cache = new EntityCache(1000);
+        for (int i = 0; i < 100; i++) {
+            String key = EntityCache.actorKey("hot" + i);
+            cache.put(key, VALUE, cache.stamp(key));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertNotNull(cache.get(EntityCache.actorKey("hot" + i)));
+            }
+        }
+        for (int i = 0; i < 20000; i++) {
+            String key = EntityCache.actorKey("cold" + i);
+            assertNull(cache.get(key));
+            cache.put(key, VALUE, cache.stamp(key));
+        }
+
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get(EntityCache.actorKey("hot" + i)) != null) {
+                kept++;
+            }
+        }
+        assertTrue("only " + kept + " popular entries kept", kept >= 90);
+        assertTrue(cache.size() <= 1000);
+        assertTrue(cache.evictions() > 0);
+    }
+
+
+    @Test
+    public void countsHitsAndMisses() {
+        EntityCache cache = new EntityCache(100);
+        String key = EntityCache.actorKey("nm1");
+        cache.get(key);
+        cache.put(key, VALUE, cache.stamp(key));
+        cache.get(key);
+        cache.get(key);
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+
+    @Test
+    public void storesNothingWhenDisabled() {
+        EntityCache cache = new EntityCache(0);
+        String key = EntityCache.actorKey("nm1");
+        cache.put(key, VALUE, cache.stamp(key));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,89 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adds movies with mixed genre strings to a synthetic graph and pages through AND and OR queries, checking
+ * them against a scan of every movie
+ */
+public class GenreIndexTest {
+
+    private static final int EDGES = 2000;
+    private static final String[] MIXED_GENRES = {
+            "Drama,Romance", " Comedy , Drama", "Drama,Drama", "Horror,Comedy,Romance", "Music", "", null};
+
+
+    @Test
+    public void pagesFollowChanges() {
+        for (long seed = 1; seed <= 3; seed++) {
+            CoStarGraph graph = SyntheticGraph.build(EDGES, seed);
+            GenreIndex index = new GenreIndex(graph);
+            Random random = new Random(seed);
+            for (int change = 1; change <= 300; change++) {
+                String movieId = "tt9" + random.nextInt(1000000);
+                graph.addMovie(movieId, "Movie " + movieId, MIXED_GENRES[random.nextInt(MIXED_GENRES.length)]);
+                if (random.nextBoolean()) {
+                    graph.addRelationship(SyntheticGraph.actorId(random.nextInt(100)), movieId);
+                }
+                if (random.nextInt(10) == 0) {
+                    // the index only holds movies, removing an actor changes nothing
+                    graph.removeActor(SyntheticGraph.actorId(random.nextInt(SyntheticGraph.actorCount(EDGES))));
+                }
+                if (change % 100 == 0) {
+                    String context = "seed " + seed + ", change " + change;
+                    for (String[] genres : new String[][]{
+                            {"Drama"}, {"Music"}, {"Drama", "Romance"}, {"Comedy", "Drama", "Romance"},
+                            {"Horror", "Music"}, {"Western"}, {"Drama", "Western"}}) {
+                        assertPages(context, graph, index, genres, true);
+                        assertPages(context, graph, index, genres, false);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static void assertPages(String context, CoStarGraph graph, GenreIndex index, String[] genres,
+                                    boolean all) {
+        TreeSet<String> expected = new TreeSet<>();
+        for (int movie = 0; movie < graph.movieSlots(); movie++) {
+            List<String> movieGenres = Arrays.asList(ActorLeaderboard.split(graph.movieGenreAt(movie)));
+            int matched = 0;
+            for (String genre : genres) {
+                if (movieGenres.contains(genre)) {
+                    matched++;
+                }
+            }
+            if (all ? matched == genres.length : matched > 0) {
+                expected.add(graph.movieIdAt(movie));
+            }
+        }
+
+        String query = context + ", " + (all ? "all of " : "any of ") + Arrays.toString(genres);
+        List<String> paged = new ArrayList<>();
+        String after = null;
+        int limit = 7;
+        while (true) {
+            List<String[]> page = index.page(genres, all, after, limit);
+            assertTrue(query, page.size() <= limit + 1);
+            for (String[] movie : page.subList(0, Math.min(limit, page.size()))) {
+                assertEquals(query, graph.movieNameAt(graph.movieIndex(movie[0])), movie[1]);
+                paged.add(movie[0]);
+            }
+            if (page.size() <= limit) {
+                break;
+            }
+            after = paged.get(paged.size() - 1);
+        }
+        assertEquals(query, new ArrayList<>(expected), paged);
+    }
+}
@@ -0,0 +1,96 @@
+package ca.yorku.eecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Journals written through a graph's changes and replayed onto an empty graph
+ */
+public class GraphJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void replaysEveryKindOfRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        CoStarGraph graph = new CoStarGraph();
+        try (GraphJournal journal = new GraphJournal(directory, directory.resolve("graph.snapshot"), 0)) {
+            graph.setJournal(journal);
+            graph.addActor("nm1", "Kevin Bacon");
+            graph.addActor("nm2", null);
+            graph.addMovie("tt1", "Footloose", null);
+            graph.addMovie("tt2", "Ünïcödé 映画", "Drama,Music");
+            graph.addRelationship("nm1", "tt1");
+            graph.addRelationship("nm2", "tt1");
+            graph.addRelationship("nm3", "tt2");
+            graph.removeActor("nm3");
+            assertEquals(8, journal.records());
+        }
+
+        CoStarGraph replayed = new CoStarGraph();
+        assertEquals(1, GraphJournal.replay(directory, 0, replayed));
+        assertEquals("Kevin Bacon", replayed.actorNameAt(replayed.actorIndex("nm1")));
+        assertNull(replayed.actorNameAt(replayed.actorIndex("nm2")));
+        assertEquals("Ünïcödé 映画", replayed.movieNameAt(replayed.movieIndex("tt2")));
+        assertEquals("Drama,Music", replayed.movieGenreAt(replayed.movieIndex("tt2")));
+        assertNull(replayed.movieGenreAt(replayed.movieIndex("tt1")));
+        assertEquals(1, replayed.distance("nm1", "nm2"));
+        assertTrue(replayed.actorIndex("nm3") < 0);
+    }
+
+
+    /**
+     * Past the 64 KB a modified UTF-8 string can hold
+     */
+    @Test
+    public void keepsLongNames() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        char[] chars = new char[40000];
+        Arrays.fill(chars, 'é');
+        String name = new String(chars);
+        Path snapshot = Files.createFile(directory.resolve("graph.snapshot"));
+        CoStarGraph graph = new CoStarGraph();
+        try (GraphJournal journal = new GraphJournal(directory, snapshot, 0)) {
+            graph.setJournal(journal);
+            graph.addActor("nm1", name);
+            assertEquals(1, journal.records());
+        }
+        assertTrue("write failed and the snapshot was discarded", Files.exists(snapshot));
+
+        CoStarGraph replayed = new CoStarGraph();
+        GraphJournal.replay(directory, 0, replayed);
+        assertEquals(name, replayed.actorNameAt(replayed.actorIndex("nm1")));
+    }
+
+
+    @Test
+    public void stopsAtRecordCutShort() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        CoStarGraph graph = new CoStarGraph();
+        try (GraphJournal journal = new GraphJournal(directory, directory.resolve("graph.snapshot"), 0)) {
+            graph.setJournal(journal);
+            graph.addActor("nm1", "Kevin Bacon");
+            graph.addActor("nm2", "Second Actor");
+        }
+        Path file = directory.resolve("graph.journal.0");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        CoStarGraph replayed = new CoStarGraph();
+        GraphJournal.replay(directory, 0, replayed);
+        assertEquals("Kevin Bacon", replayed.actorNameAt(replayed.actorIndex("nm1")));
+        assertTrue(replayed.actorIndex("nm2") < 0);
+    }
+}
@@ -0,0 +1,173 @@
+package ca.yorku.eecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Snapshots written and read back, alone and with a journal on top, and snapshots damaged on disk
+ */
+public class GraphStoreTest {
+
+    private static final int EDGES = 3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        CoStarGraph graph = SyntheticGraph.build(EDGES, 5);
+        graph.addActor("nm9000001", "Ünïcödé 俳優");
+        graph.addMovie("tt9000001", "No Genre", null);
+        graph.addRelationship("nm9000001", "tt9000001");
+        graph.addRelationship(SyntheticGraph.actorId(3), "tt9000001");
+        graph.addRelationship("nm9000002", SyntheticGraph.movieId(1));
+        graph.removeActor(SyntheticGraph.actorId(7));
+        write(graph, 7);
+
+        GraphStore store = store();
+        assertEquals(7, store.read());
+        assertSameGraph(graph, store.graph());
+    }
+
+
+    @Test
+    public void replaysJournalOnTopOfSnapshot() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        CoStarGraph graph = SyntheticGraph.build(EDGES, 6);
+        write(graph, 1);
+        try (GraphJournal journal = new GraphJournal(directory, snapshot(), 1)) {
+            graph.setJournal(journal);
+            graph.addActor("nm9000001", "Late Actor");
+            graph.addMovie("tt9000001", "Late Movie", "Drama,Romance");
+            graph.addRelationship("nm9000001", "tt9000001");
+            graph.addRelationship(SyntheticGraph.actorId(0), "tt9000001");
+            graph.removeActor(SyntheticGraph.actorId(11));
+            graph.setJournal(null);
+        }
+
+        GraphStore store = store();
+        assertEquals(1, store.read());
+        assertEquals(2, GraphJournal.replay(directory, 1, store.graph()));
+        assertSameGraph(graph, store.graph());
+    }
+
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        write(SyntheticGraph.build(EDGES, 7), 0);
+        byte[] bytes = Files.readAllBytes(snapshot());
+        for (int length : new int[]{bytes.length - 1, bytes.length - 4, bytes.length / 2, 30, 10}) {
+            Files.write(snapshot(), Arrays.copyOf(bytes, length));
+            assertRejected("Snapshot is truncated");
+        }
+    }
+
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        write(SyntheticGraph.build(EDGES, 8), 0);
+        byte[] bytes = Files.readAllBytes(snapshot());
+
+        byte[] wrongMagic = bytes.clone();
+        wrongMagic[0] ^= 0x55;
+        Files.write(snapshot(), wrongMagic);
+        assertRejected("Not a graph snapshot");
+
+        byte[] wrongVersion = bytes.clone();
+        ByteBuffer.wrap(wrongVersion).putInt(4, 99);
+        Files.write(snapshot(), wrongVersion);
+        assertRejected("Unsupported snapshot version 99");
+    }
+
+
+    /**
+     * A damaged count must fail the read rather than size an array from it
+     */
+    @Test
+    public void rejectsCorruptCounts() throws IOException {
+        write(SyntheticGraph.build(EDGES, 9), 0);
+        byte[] bytes = Files.readAllBytes(snapshot());
+        // actor, movie and relationship counts follow magic, version and generation
+        for (int offset = 16; offset <= 24; offset += 4) {
+            for (int count : new int[]{Integer.MAX_VALUE, -1}) {
+                byte[] corrupt = bytes.clone();
+                ByteBuffer.wrap(corrupt).putInt(offset, count);
+                Files.write(snapshot(), corrupt);
+                assertRejected("Snapshot is truncated");
+            }
+        }
+    }
+
+
+    private void assertRejected(String message) {
+        try {
+            store().read();
+            fail("read a damaged snapshot");
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+
+    private static void assertSameGraph(CoStarGraph expected, CoStarGraph actual) {
+        assertEquals(expected.actorCount(), actual.actorCount());
+        assertEquals(expected.movieCount(), actual.movieCount());
+        // relationships of removed actors stay stored until a compaction, so compare what a snapshot keeps
+        assertEquals(CoStarGraphTest.restore(expected).edgeCount(), CoStarGraphTest.restore(actual).edgeCount());
+        for (int actor = 0; actor < expected.actorSlots(); actor++) {
+            String actorId = expected.actorIdAt(actor);
+            if (actorId == null || expected.actorIndex(actorId) < 0) {
+                continue;
+            }
+            int restored = actual.actorIndex(actorId);
+            assertTrue(actorId + " is missing", restored >= 0);
+            assertEquals(expected.actorNameAt(actor), actual.actorNameAt(restored));
+        }
+        for (int movie = 0; movie < expected.movieSlots(); movie++) {
+            String movieId = expected.movieIdAt(movie);
+            int restored = actual.movieIndex(movieId);
+            assertTrue(movieId + " is missing", restored >= 0);
+            assertEquals(expected.movieNameAt(movie), actual.movieNameAt(restored));
+            assertEquals(expected.movieGenreAt(movie), actual.movieGenreAt(restored));
+        }
+        String bacon = SixDegreesOfKevinBacon.KEVIN_BACON_ID;
+        for (int actor = 0; actor < SyntheticGraph.actorCount(EDGES); actor += 7) {
+            String actorId = SyntheticGraph.actorId(actor);
+            assertEquals("distance of " + actorId, expected.distance(actorId, bacon), actual.distance(actorId, bacon));
+        }
+    }
+
+
+    private void write(CoStarGraph graph, long generation) throws IOException {
+        CoStarGraph.State state;
+        graph.lock().readLock().lock();
+        try {
+            state = graph.capture();
+        } finally {
+            graph.lock().readLock().unlock();
+        }
+        GraphStore.write(snapshot(), state, generation);
+    }
+
+
+    private GraphStore store() {
+        return new GraphStore(folder.getRoot().toPath(), true, 600, 0);
+    }
+
+
+    private Path snapshot() {
+        return folder.getRoot().toPath().resolve("graph.snapshot");
+    }
+}
@@ -0,0 +1,101 @@
+package ca.yorku.eecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Credit selection from small IMDb dumps, scanned in chunks of every size from a byte up to the whole file,
+ * so lines and the header fall on every side of a chunk boundary
+ */
+public class ImdbImporterTest {
+
+    private static final String[] TYPES = {"movie", "short", "tvSeries", "movie", "\\N"};
+    private static final String[] CATEGORIES = {"actor", "actress", "director", "actors", "self"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void selectsActorCreditsOnWantedTitles() throws Exception {
+        StringBuilder titles = new StringBuilder("tconst\ttitleType\tprimaryTitle\toriginalTitle\tisAdult\t"
+                + "startYear\tendYear\truntimeMinutes\tgenres\n");
+        BitSet movies = new BitSet();
+        for (int title = 1; title <= 60; title++) {
+            String type = TYPES[title % TYPES.length];
+            if (type.equals("movie")) {
+                movies.set(title);
+            }
+            titles.append(ImdbImporter.formatId("tt", title)).append('\t').append(type)
+                    .append("\tTitle ").append(title).append("\tTitle\t0\t1999\t\\N\t90\tDrama")
+                    .append(title % 7 == 0 ? "\r\n" : "\n");
+        }
+
+        StringBuilder principals = new StringBuilder("tconst\tordering\tnconst\tcategory\tjob\tcharacters\n");
+        Set<Long> expected = new HashSet<>();
+        int expectedCredits = 0;
+        BitSet expectedTitles = new BitSet();
+        BitSet expectedNames = new BitSet();
+        for (int credit = 0; credit < 300; credit++) {
+            int title = 1 + credit * 7 % 60;
+            int name = 1 + credit * 13 % 90;
+            String category = CATEGORIES[credit % CATEGORIES.length];
+            String nconst = credit % 11 == 0 ? "\\N" : ImdbImporter.formatId("nm", name);
+            principals.append(ImdbImporter.formatId("tt", title)).append('\t').append(credit % 10)
+                    .append('\t').append(nconst).append('\t').append(category).append("\t\\N\t[\"Self\"]")
+                    .append(credit % 5 == 0 ? "\r\n" : "\n");
+            if (movies.get(title) && !nconst.equals("\\N")
+                    && (category.equals("actor") || category.equals("actress"))) {
+                expected.add(((long) title << 32) | name);
+                expectedCredits++;
+                expectedTitles.set(title);
+                expectedNames.set(name);
+            }
+        }
+        // the last line without its newline
+        principals.setLength(principals.length() - 1);
+
+        Path titleFile = write("title.basics.tsv", titles);
+        Path principalFile = write("title.principals.tsv", principals);
+        long size = Math.max(Files.size(titleFile), Files.size(principalFile));
+        for (long chunkBytes = 1; chunkBytes <= size; chunkBytes = chunkBytes < 80 ? chunkBytes + 1 : chunkBytes * 2) {
+            ImdbImporter importer = new ImdbImporter(4, 100, "movie", chunkBytes);
+            ImdbImporter.Credits credits = importer.selectCredits(titleFile, principalFile);
+
+            String context = "chunks of " + chunkBytes + " bytes";
+            assertEquals(context, expectedCredits, credits.size);
+            Set<Long> selected = new HashSet<>();
+            for (int i = 0; i < credits.size; i++) {
+                selected.add(credits.pairs[i]);
+            }
+            assertEquals(context, expected, selected);
+            assertEquals(context, expectedTitles, credits.titles);
+            assertEquals(context, expectedNames, credits.names);
+        }
+    }
+
+
+    @Test
+    public void formatsIds() {
+        assertEquals("nm0000102", ImdbImporter.formatId("nm", 102));
+        assertEquals("tt0000000", ImdbImporter.formatId("tt", 0));
+        assertEquals("tt1234567", ImdbImporter.formatId("tt", 1234567));
+        assertEquals("tt12345678", ImdbImporter.formatId("tt", 12345678));
+    }
+
+
+    private Path write(String name, CharSequence content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
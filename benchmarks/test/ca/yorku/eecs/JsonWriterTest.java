@@ -0,0 +1,168 @@
+package ca.yorku.eecs;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Escaping and UTF-8 encoding of strings, separators, and responses sent whole or in chunks
+ */
+public class JsonWriterTest {
+
+    @Test
+    public void escapesStrings() throws IOException {
+        String value = "quote\" backslash\\ slash/ \n\r\t bell\u0007 nul\u0000 unit\u001f";
+        assertEquals("\"quote\\\" backslash\\\\ slash/ \\n\\r\\t bell\\u0007 nul\\u0000 unit\\u001f\"",
+                document(value));
+        assertEquals(value, new JSONArray("[" + document(value) + "]").getString(0));
+    }
+
+
+    @Test
+    public void encodesUtf8() throws IOException {
+        // two, three and four byte sequences, the last one a surrogate pair
+        String value = "é ß 映画 🎬 end";
+        byte[] bytes = writeValue(value);
+        assertArrayEquals(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8), bytes);
+    }
+
+
+    @Test
+    public void replacesUnpairedSurrogates() throws IOException {
+        assertEquals("\"a?b?\"", document("a\uD800b\uDC00"));
+    }
+
+
+    @Test
+    public void separatesMembers() throws IOException {
+        try (JsonWriter json = JsonWriter.buffered()) {
+            json.beginObject()
+                    .name("actorId").value("nm1")
+                    .name("movies").beginArray().value("tt1").value("tt2").endArray()
+                    .name("empty").beginObject().endObject()
+                    .name("nested").beginArray().beginObject().name("n").value(1).endObject()
+                    .beginArray().endArray().value(true).value((String) null).endArray()
+                    .endObject();
+            assertEquals("{\"actorId\":\"nm1\",\"movies\":[\"tt1\",\"tt2\"],\"empty\":{},"
+                    + "\"nested\":[{\"n\":1},[],true,null]}", string(json.toByteArray()));
+        }
+    }
+
+
+    @Test
+    public void separatesNdjsonDocuments() throws IOException {
+        try (JsonWriter json = JsonWriter.buffered()) {
+            json.beginObject().name("n").value(1).endObject().newline();
+            json.beginObject().name("n").value(2).endObject().newline();
+            assertEquals("{\"n\":1}\n{\"n\":2}\n", string(json.toByteArray()));
+        }
+    }
+
+
+    @Test
+    public void sendsSmallResponseWithLength() throws IOException {
+        StubExchange exchange = exchange();
+        try (JsonWriter json = JsonWriter.response(exchange, 201)) {
+            json.beginObject().name("ok").value(true).endObject().finish();
+        }
+        assertEquals(201, exchange.getResponseCode());
+        assertEquals("application/json", exchange.getResponseHeaders().getFirst("Content-Type"));
+        assertEquals("{\"ok\":true}", string(exchange.responseBody()));
+        assertEquals(exchange.responseBytes(), exchange.responseLength());
+    }
+
+
+    @Test
+    public void chunksLargeResponse() throws IOException {
+        StubExchange exchange = exchange();
+        try (JsonWriter json = JsonWriter.response(exchange, 200)) {
+            writeLargeDocument(json);
+            json.finish();
+        }
+        byte[] expected;
+        try (JsonWriter json = JsonWriter.buffered()) {
+            writeLargeDocument(json);
+            expected = json.toByteArray();
+        }
+        assertEquals(200, exchange.getResponseCode());
+        assertEquals("chunked", 0, exchange.responseLength());
+        assertArrayEquals(expected, exchange.responseBody());
+        assertEquals(5000, new JSONObject(string(expected)).getJSONArray("actors").length());
+    }
+
+
+    @Test
+    public void abandonsUnfinishedResponse() throws IOException {
+        StubExchange exchange = exchange();
+        try (JsonWriter json = JsonWriter.response(exchange, 200)) {
+            json.beginObject().name("partial");
+            try {
+                json.finish();
+                fail("finished an incomplete document");
+            } catch (IllegalStateException expected) {
+                // the handler can still answer with an error
+            }
+        }
+        assertEquals(-1, exchange.getResponseCode());
+        assertEquals(0, exchange.responseBytes());
+    }
+
+
+    /**
+     * Buffers return to a shared pool, so a short document after a long one must not pick up its tail
+     */
+    @Test
+    public void reusesBuffersCleanly() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            StubExchange exchange = exchange();
+            try (JsonWriter json = JsonWriter.response(exchange, 200)) {
+                json.beginArray().value("a long value to leave something in the buffer " + i).endArray().finish();
+            }
+        }
+        StubExchange exchange = exchange();
+        try (JsonWriter json = JsonWriter.response(exchange, 200)) {
+            json.beginArray().endArray().finish();
+        }
+        assertEquals("[]", string(exchange.responseBody()));
+    }
+
+
+    private static void writeLargeDocument(JsonWriter json) throws IOException {
+        // well past a few buffers, with multi-byte characters straddling the buffer boundaries
+        json.beginObject().name("actors").beginArray();
+        for (int i = 0; i < 5000; i++) {
+            json.beginObject().name("actorId").value("nm" + i).name("name").value("Ac\"tor 映画 " + i).endObject();
+        }
+        json.endArray().endObject();
+    }
+
+
+    private static String document(String value) throws IOException {
+        return string(writeValue(value));
+    }
+
+
+    private static byte[] writeValue(String value) throws IOException {
+        try (JsonWriter json = JsonWriter.buffered()) {
+            return json.value(value).toByteArray();
+        }
+    }
+
+
+    private static StubExchange exchange() {
+        return new StubExchange().keepResponse().reset("GET", URI.create("/api/v1/test"), new byte[0]);
+    }
+
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
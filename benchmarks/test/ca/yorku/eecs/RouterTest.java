@@ -0,0 +1,131 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Dispatch by path and method, the 404 and 405 answers, and the order middleware runs in
+ */
+public class RouterTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final StubExchange exchange = new StubExchange().keepResponse();
+
+
+    @Test
+    public void dispatchesByPathAndMethod() throws IOException {
+        Router router = new Router()
+                .on("GET", "/api/v1/getActor", ex -> answer("get"))
+                .on("PUT", "/api/v1/addActor", ex -> answer("put"))
+                .on("POST", "/api/v1/addActor", ex -> answer("post"));
+
+        send(router, "GET", "/api/v1/getActor?actorId=nm1");
+        assertEquals(200, exchange.getResponseCode());
+        send(router, "POST", "/api/v1/addActor");
+        send(router, "PUT", "/api/v1/addActor");
+        assertEquals(Arrays.asList("get", "post", "put"), calls);
+    }
+
+
+    @Test
+    public void answersUnknownPathWith404() throws IOException {
+        Router router = new Router().on("GET", "/api/v1/getActor", ex -> answer("get"));
+
+        send(router, "GET", "/api/v1/getActors");
+        assertEquals(404, exchange.getResponseCode());
+        assertEquals("Endpoint not found", new String(exchange.responseBody(), StandardCharsets.UTF_8));
+        assertNull(exchange.getResponseHeaders().getFirst("Allow"));
+        assertEquals(0, calls.size());
+    }
+
+
+    @Test
+    public void answersOtherMethodWith405() throws IOException {
+        Router router = new Router()
+                .on("PUT", "/api/v1/addActor", ex -> answer("put"))
+                .on("POST", "/api/v1/addActor", ex -> answer("post"));
+
+        send(router, "GET", "/api/v1/addActor");
+        assertEquals(405, exchange.getResponseCode());
+        assertEquals("POST, PUT", exchange.getResponseHeaders().getFirst("Allow"));
+        assertEquals(0, calls.size());
+    }
+
+
+    @Test
+    public void runsGlobalMiddlewareOutsideRouteMiddleware() throws IOException {
+        Router router = new Router()
+                .use(middleware("first"))
+                .use(middleware("second"))
+                .on("GET", "/api/v1/getActor", ex -> answer("handler"), middleware("own"), middleware("own2"));
+
+        send(router, "GET", "/api/v1/getActor");
+        assertEquals(Arrays.asList(
+                "first /api/v1/getActor", "second /api/v1/getActor", "own /api/v1/getActor",
+                "own2 /api/v1/getActor", "handler"), calls);
+
+        calls.clear();
+        send(router, "DELETE", "/nowhere");
+        assertEquals(Arrays.asList("first " + Router.UNMATCHED, "second " + Router.UNMATCHED), calls);
+        assertEquals(404, exchange.getResponseCode());
+    }
+
+
+    @Test
+    public void middlewareMayAnswerItself() throws IOException {
+        Router router = new Router()
+                .use((route, ex, next) -> ex.sendResponseHeaders(429, -1))
+                .on("GET", "/api/v1/getActor", ex -> answer("handler"));
+
+        send(router, "GET", "/api/v1/getActor");
+        assertEquals(429, exchange.getResponseCode());
+        assertEquals(0, calls.size());
+    }
+
+
+    @Test
+    public void rejectsLateMiddlewareAndDuplicateRoutes() {
+        Router router = new Router().on("GET", "/api/v1/getActor", ex -> answer("get"));
+        try {
+            router.use(middleware("late"));
+            fail("middleware added after a route");
+        } catch (IllegalStateException expected) {
+            // routes are composed when registered
+        }
+        try {
+            router.on("GET", "/api/v1/getActor", ex -> answer("again"));
+            fail("route registered twice");
+        } catch (IllegalStateException expected) {
+            assertEquals("GET /api/v1/getActor is already registered", expected.getMessage());
+        }
+    }
+
+
+    private Router.Middleware middleware(String name) {
+        return (route, ex, next) -> {
+            calls.add(name + " " + route);
+            next.handle(ex);
+        };
+    }
+
+
+    private void answer(String name) throws IOException {
+        calls.add(name);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+
+    private void send(Router router, String method, String uri) throws IOException {
+        router.handle(exchange.reset(method, URI.create(uri), new byte[0]));
+    }
+}
@@ -0,0 +1,111 @@
+package ca.yorku.eecs;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Requests joining a running query, keys forgotten once it completes, and failures handed to every waiter
+ */
+public class SingleFlightTest {
+
+    private final SingleFlight<String> flights = new SingleFlight<>();
+    private final AtomicInteger queries = new AtomicInteger();
+
+
+    @Test
+    public void joinsRunningQuery() throws Exception {
+        CompletableFuture<String> query = new CompletableFuture<>();
+        CompletionStage<String> first = flights.run("path:nm1", () -> start(query));
+        CompletionStage<String> second = flights.run("path:nm1", () -> start(new CompletableFuture<>()));
+        CompletionStage<String> other = flights.run("path:nm2", () -> start(CompletableFuture.completedFuture("b")));
+
+        assertEquals(2, queries.get());
+        assertEquals(1, flights.inFlight());
+        query.complete("a");
+        assertEquals("a", first.toCompletableFuture().get());
+        assertSame(first, second);
+        assertEquals("b", other.toCompletableFuture().get());
+        assertEquals(2, flights.started());
+        assertEquals(1, flights.coalesced());
+    }
+
+
+    @Test
+    public void forgetsKeyOnceComplete() throws Exception {
+        CompletableFuture<String> query = new CompletableFuture<>();
+        flights.run("path:nm1", () -> start(query));
+        query.complete("old");
+        assertEquals(0, flights.inFlight());
+
+        CompletionStage<String> later = flights.run("path:nm1", () -> start(CompletableFuture.completedFuture("new")));
+        assertEquals("new", later.toCompletableFuture().get());
+        assertEquals(2, queries.get());
+    }
+
+
+    /**
+     * A request arriving while the result is handed out must start a query of its own
+     */
+    @Test
+    public void forgetsKeyBeforeHandingOutResult() throws Exception {
+        CompletableFuture<String> query = new CompletableFuture<>();
+        CompletableFuture<String> joinedLater = new CompletableFuture<>();
+        flights.run("path:nm1", () -> start(query)).thenAccept(value ->
+                flights.run("path:nm1", () -> start(CompletableFuture.completedFuture("fresh")))
+                        .thenAccept(joinedLater::complete));
+        query.complete("first");
+        assertEquals("fresh", joinedLater.get());
+    }
+
+
+    @Test
+    public void failsEveryWaiter() throws Exception {
+        CompletableFuture<String> query = new CompletableFuture<>();
+        CompletionStage<String> first = flights.run("path:nm1", () -> start(query));
+        CompletionStage<String> second = flights.run("path:nm1", () -> start(new CompletableFuture<>()));
+        query.completeExceptionally(new IllegalStateException("database down"));
+
+        assertFails(first, "database down");
+        assertFails(second, "database down");
+        assertEquals(0, flights.inFlight());
+    }
+
+
+    @Test
+    public void failsWhenQueryCannotStart() throws Exception {
+        CompletionStage<String> failed = flights.run("path:nm1", () -> {
+            throw new IllegalStateException("no session");
+        });
+        assertFails(failed, "no session");
+        assertEquals(0, flights.inFlight());
+
+        CompletionStage<String> retried = flights.run("path:nm1", () -> start(CompletableFuture.completedFuture("ok")));
+        assertEquals("ok", retried.toCompletableFuture().get());
+    }
+
+
+    private CompletionStage<String> start(CompletableFuture<String> query) {
+        queries.incrementAndGet();
+        return query;
+    }
+
+
+    private static void assertFails(CompletionStage<String> stage, String message) throws InterruptedException {
+        try {
+            stage.toCompletableFuture().get();
+            fail("query did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+}